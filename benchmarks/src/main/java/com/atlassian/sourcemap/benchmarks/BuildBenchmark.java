@@ -0,0 +1,114 @@
+package com.atlassian.sourcemap.benchmarks;
+
+import com.atlassian.sourcemap.Mapping;
+import com.atlassian.sourcemap.MappingSink;
+import com.atlassian.sourcemap.SourceMap;
+import com.atlassian.sourcemap.SourceMapImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building source map by the tool generating it, with `addMapping` and through `MappingSink` with names registered
+ * once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BuildBenchmark {
+    @Param({Corpus.MINIFIED, Corpus.TRANSPILED})
+    public String shape;
+
+    // Segments of the corpus map, the names are given by their index in `fileNames` and `symbolNames`, -1 if there's
+    // no symbol name.
+    private int size;
+    private int[] generatedLines;
+    private int[] generatedColumns;
+    private int[] sourceLines;
+    private int[] sourceColumns;
+    private int[] files;
+    private int[] symbols;
+    private final List<String> fileNames = new ArrayList<String>();
+    private final List<String> symbolNames = new ArrayList<String>();
+
+    @Setup
+    public void setup() {
+        final List<Mapping> mappings = new ArrayList<Mapping>();
+        Corpus.create(shape).eachMapping(new SourceMap.EachMappingCallback() {
+            public void apply(Mapping mapping) {
+                mappings.add(mapping);
+            }
+        });
+        size = mappings.size();
+        generatedLines = new int[size];
+        generatedColumns = new int[size];
+        sourceLines = new int[size];
+        sourceColumns = new int[size];
+        files = new int[size];
+        symbols = new int[size];
+        Map<String, Integer> fileIndexes = new HashMap<String, Integer>();
+        Map<String, Integer> symbolIndexes = new HashMap<String, Integer>();
+        for (int i = 0; i < size; i++) {
+            Mapping mapping = mappings.get(i);
+            generatedLines[i] = mapping.getGeneratedLine();
+            generatedColumns[i] = mapping.getGeneratedColumn();
+            sourceLines[i] = mapping.getSourceLine();
+            sourceColumns[i] = mapping.getSourceColumn();
+            files[i] = indexOf(mapping.getSourceFileName(), fileNames, fileIndexes);
+            symbols[i] = mapping.getSourceSymbolName() == null ? -1
+                : indexOf(mapping.getSourceSymbolName(), symbolNames, symbolIndexes);
+        }
+    }
+
+    private static int indexOf(String name, List<String> names, Map<String, Integer> indexes) {
+        Integer index = indexes.get(name);
+        if (index == null) {
+            index = names.size();
+            names.add(name);
+            indexes.put(name, index);
+        }
+        return index;
+    }
+
+    @Benchmark
+    public SourceMap addMapping() {
+        SourceMap map = new SourceMapImpl();
+        for (int i = 0; i < size; i++) {
+            map.addMapping(generatedLines[i], generatedColumns[i], sourceLines[i], sourceColumns[i],
+                fileNames.get(files[i]), symbols[i] < 0 ? null : symbolNames.get(symbols[i]));
+        }
+        return map;
+    }
+
+    @Benchmark
+    public SourceMap addSegment() {
+        SourceMapImpl map = new SourceMapImpl();
+        // The tool registers its names once, as it knows them.
+        int[] fileIds = new int[fileNames.size()];
+        for (int i = 0; i < fileIds.length; i++) fileIds[i] = map.addSourceFileName(fileNames.get(i));
+        int[] symbolIds = new int[symbolNames.size()];
+        for (int i = 0; i < symbolIds.length; i++) symbolIds[i] = map.addSourceSymbolName(symbolNames.get(i));
+        for (int i = 0; i < size; i++) {
+            map.addSegment(generatedLines[i], generatedColumns[i], fileIds[files[i]], sourceLines[i],
+                sourceColumns[i], symbols[i] < 0 ? MappingSink.NO_NAME : symbolIds[symbols[i]]);
+        }
+        return map;
+    }
+}
@@ -0,0 +1,162 @@
+package com.atlassian.sourcemap.benchmarks;
+
+import com.atlassian.sourcemap.SourceMap;
+import com.atlassian.sourcemap.SourceMapImpl;
+import com.atlassian.sourcemap.SourceMapJoiner;
+import com.atlassian.sourcemap.Util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Synthetic source maps of the shapes seen in practice, generated with the fixed seed so every run measures the same
+ * data.
+ *
+ * - `minified` - single line bundle of many files with long lines, lots of segments and names.
+ * - `transpiled` - file with many short lines and few segments per line, like CoffeeScript or TypeScript output.
+ * - `batch` - batch of many small transpiled files joined together.
+ */
+class Corpus {
+    static final String MINIFIED = "minified";
+    static final String TRANSPILED = "transpiled";
+    static final String BATCH = "batch";
+
+    static final int MINIFIED_SEGMENTS = 200000;
+    static final int MINIFIED_FILES = 200;
+    static final int TRANSPILED_LINES = 20000;
+    static final int BATCH_FILES = 500;
+    static final int BATCH_FILE_LINES = 200;
+    static final int NAMES = 2000;
+
+    private static final long SEED = 42;
+
+    /**
+     * Source map of the given shape, built with `addMapping`.
+     */
+    static SourceMap create(String shape) {
+        Random random = new Random(SEED);
+        if (MINIFIED.equals(shape)) return minified(random, files(MINIFIED_FILES), TRANSPILED_LINES / MINIFIED_FILES);
+        if (TRANSPILED.equals(shape)) return transpiled(random, "/transpiled.coffee", TRANSPILED_LINES);
+        if (BATCH.equals(shape)) return join(batch(random));
+        throw new RuntimeException("unknown shape " + shape + "!");
+    }
+
+    /**
+     * Maps of the files of the batch, built with `addMapping`.
+     */
+    static List<SourceMap> batch() {
+        return batch(new Random(SEED));
+    }
+
+    /**
+     * Minified bundle of the files, every file has the given number of lines.
+     */
+    static SourceMap minified(List<String> files, int fileLines) {
+        return minified(new Random(SEED), files, fileLines);
+    }
+
+    /**
+     * Names of the source files, the same as used by `batch()`.
+     */
+    static List<String> files(int count) {
+        List<String> files = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) files.add("/src/module" + i + "/file" + i + ".js");
+        return files;
+    }
+
+    /**
+     * Maps of the batch files by file name.
+     */
+    static Map<String, SourceMap> byFile(List<SourceMap> batch) {
+        List<String> files = files(batch.size());
+        Map<String, SourceMap> result = new LinkedHashMap<String, SourceMap>();
+        for (int i = 0; i < batch.size(); i++) result.put(files.get(i), batch.get(i));
+        return result;
+    }
+
+    /**
+     * Joins the batch, every file takes `BATCH_FILE_LINES` lines.
+     */
+    static SourceMap join(List<SourceMap> batch) {
+        SourceMapJoiner joiner = Util.joiner();
+        for (SourceMap sourceMap : batch) joiner.addSourceMap(sourceMap, BATCH_FILE_LINES, 0);
+        return joiner.join();
+    }
+
+    /**
+     * JavaScript-like source text with the given number of lines.
+     */
+    static String sourceText(int lines) {
+        Random random = new Random(SEED);
+        StringBuilder text = new StringBuilder(lines * 40);
+        for (int line = 0; line < lines; line++) {
+            if (line > 0) text.append('\n');
+            int indent = random.nextInt(5) * 4;
+            for (int i = 0; i < indent; i++) text.append(' ');
+            text.append("var ").append(name(random.nextInt(NAMES))).append(" = ").append(random.nextInt(100000))
+                .append(';');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Parses the source map from its generated content.
+     */
+    static SourceMap parse(SourceMap sourceMap) {
+        return new SourceMapImpl(sourceMap.generate());
+    }
+
+    private static List<SourceMap> batch(Random random) {
+        List<String> files = files(BATCH_FILES);
+        List<SourceMap> batch = new ArrayList<SourceMap>(files.size());
+        // The original files are TypeScript, the joined ones are the compiled JavaScript.
+        for (String file : files) batch.add(transpiled(random, file.replace(".js", ".ts"), BATCH_FILE_LINES));
+        return batch;
+    }
+
+    private static SourceMap minified(Random random, List<String> files, int fileLines) {
+        SourceMap map = new SourceMapImpl();
+        int segmentsPerFile = MINIFIED_SEGMENTS / files.size();
+        int column = 0;
+        for (String file : files) {
+            int sourceLine = 0;
+            for (int i = 0; i < segmentsPerFile; i++) {
+                column += 1 + random.nextInt(24);
+                // Mostly forward in the source, sometimes back as the minifier moves code around.
+                sourceLine = Math.max(0, Math.min(fileLines - 1, sourceLine + random.nextInt(4) - 1));
+                int sourceColumn = random.nextInt(80);
+                if (random.nextInt(3) == 0)
+                    map.addMapping(0, column, sourceLine, sourceColumn, file, name(random.nextInt(NAMES)));
+                else
+                    map.addMapping(0, column, sourceLine, sourceColumn, file);
+            }
+        }
+        return map;
+    }
+
+    private static SourceMap transpiled(Random random, String file, int lines) {
+        SourceMap map = new SourceMapImpl();
+        int sourceLine = 0;
+        for (int line = 0; line < lines; line++) {
+            // Blank lines and lines of the generated helper code have no mappings.
+            int segments = random.nextInt(10) == 0 ? 0 : 1 + random.nextInt(6);
+            int column = random.nextInt(5) * 2;
+            for (int i = 0; i < segments; i++) {
+                if (random.nextInt(8) == 0)
+                    map.addMapping(line, column, sourceLine, column, file, name(random.nextInt(NAMES)));
+                else
+                    map.addMapping(line, column, sourceLine, column, file);
+                column += 1 + random.nextInt(12);
+            }
+            if (random.nextInt(4) != 0) sourceLine++;
+        }
+        return map;
+    }
+
+    private static String name(int index) {
+        return "name" + index;
+    }
+}
@@ -0,0 +1,44 @@
+package com.atlassian.sourcemap.benchmarks;
+
+import com.atlassian.sourcemap.SourceMap;
+import com.atlassian.sourcemap.Util;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creating 1 to 1 source map for the file without source map, as done for every such file of the batch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Create1to1Benchmark {
+    private String source;
+
+    @Setup
+    public void setup() {
+        source = Corpus.sourceText(Corpus.TRANSPILED_LINES);
+    }
+
+    @Benchmark
+    public SourceMap create1to1SourceMap() {
+        return Util.create1to1SourceMap(source, "/script.js");
+    }
+
+    @Benchmark
+    public String create1to1SourceMapAndGenerate() {
+        return Util.create1to1SourceMap(source, "/script.js").generate();
+    }
+}
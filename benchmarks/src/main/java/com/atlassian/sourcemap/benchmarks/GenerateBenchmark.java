@@ -0,0 +1,77 @@
+package com.atlassian.sourcemap.benchmarks;
+
+import com.atlassian.sourcemap.SourceMap;
+import com.atlassian.sourcemap.SourceMapImpl;
+import com.atlassian.sourcemap.Util;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generating of source maps built with `addMapping` (encoded from scratch) and of parsed ones (copied as they are),
+ * with and without offset and encoding in parallel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GenerateBenchmark {
+    @Param({Corpus.MINIFIED, Corpus.TRANSPILED, Corpus.BATCH})
+    public String shape;
+
+    private SourceMap built;
+    private SourceMap parsed;
+    private ExecutorService executor;
+
+    @Setup
+    public void setup() {
+        built = Corpus.create(shape);
+        parsed = Corpus.parse(built);
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public String generate() {
+        return built.generate();
+    }
+
+    @Benchmark
+    public String generateParallel() {
+        return ((SourceMapImpl) built).generate(executor);
+    }
+
+    @Benchmark
+    public String generateParsed() {
+        return parsed.generate();
+    }
+
+    @Benchmark
+    public String offsetAndGenerate() {
+        return Util.offset(built, 1).generate();
+    }
+
+    @Benchmark
+    public String offsetAndGenerateParsed() {
+        return Util.offset(parsed, 1).generate();
+    }
+}
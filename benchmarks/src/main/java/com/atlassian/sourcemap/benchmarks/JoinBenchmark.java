@@ -0,0 +1,107 @@
+package com.atlassian.sourcemap.benchmarks;
+
+import com.atlassian.sourcemap.BatchWriter;
+import com.atlassian.sourcemap.IncrementalSourceMapJoiner;
+import com.atlassian.sourcemap.SourceMap;
+import com.atlassian.sourcemap.SourceMapJoiner;
+import com.atlassian.sourcemap.Util;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Joining the batch of files into one source map and into index map, joining it again after one file has changed,
+ * and writing the batch content together with its source map.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JoinBenchmark {
+    private List<SourceMap> built;
+    private List<SourceMap> parsed;
+    private IncrementalSourceMapJoiner incrementalJoiner;
+    private int changed = 0;
+    private byte[] content;
+
+    @Setup
+    public void setup() {
+        built = Corpus.batch();
+        parsed = new ArrayList<SourceMap>(built.size());
+        for (SourceMap sourceMap : built) parsed.add(Corpus.parse(sourceMap));
+        incrementalJoiner = Util.incrementalJoiner();
+        for (SourceMap sourceMap : parsed) incrementalJoiner.addSourceMap(sourceMap, Corpus.BATCH_FILE_LINES, 0);
+        content = Corpus.sourceText(Corpus.BATCH_FILE_LINES).getBytes(Charset.forName("UTF-8"));
+    }
+
+    @Benchmark
+    public String join() {
+        return joiner(built).join().generate();
+    }
+
+    @Benchmark
+    public String joinParsed() {
+        return joiner(parsed).join().generate();
+    }
+
+    @Benchmark
+    public String joinParsedToIndexMap() {
+        return joiner(parsed).joinToIndexMap();
+    }
+
+    @Benchmark
+    public String joinIncrementallyAfterChange() {
+        // The changed file has been compiled again, so its source map is built, not parsed.
+        changed = (changed + 1) % built.size();
+        incrementalJoiner.setSourceMap(changed, built.get(changed), Corpus.BATCH_FILE_LINES, 0);
+        return incrementalJoiner.join().generate();
+    }
+
+    @Benchmark
+    public int joinWithContent() throws IOException {
+        // Content is concatenated and its lines counted, then the source maps are joined.
+        ByteArrayOutputStream contentOut = new ByteArrayOutputStream();
+        SourceMapJoiner joiner = Util.joiner();
+        for (int i = 0; i < parsed.size(); i++) {
+            if (i > 0) contentOut.write('\n');
+            contentOut.write(content);
+            joiner.addSourceMap(parsed.get(i), Util.countLines(new ByteArrayInputStream(content)), 0);
+        }
+        ByteArrayOutputStream sourceMapOut = new ByteArrayOutputStream();
+        Util.generate(joiner.join(), sourceMapOut);
+        return contentOut.size() + sourceMapOut.size();
+    }
+
+    @Benchmark
+    public int writeBatch() {
+        ByteArrayOutputStream contentOut = new ByteArrayOutputStream();
+        ByteArrayOutputStream sourceMapOut = new ByteArrayOutputStream();
+        BatchWriter writer = new BatchWriter(contentOut, sourceMapOut);
+        for (SourceMap sourceMap : parsed) writer.add(new ByteArrayInputStream(content), sourceMap);
+        writer.finish();
+        return contentOut.size() + sourceMapOut.size();
+    }
+
+    private static SourceMapJoiner joiner(List<SourceMap> batch) {
+        SourceMapJoiner joiner = Util.joiner();
+        for (SourceMap sourceMap : batch) joiner.addSourceMap(sourceMap, Corpus.BATCH_FILE_LINES, 0);
+        return joiner;
+    }
+}
@@ -0,0 +1,89 @@
+package com.atlassian.sourcemap.benchmarks;
+
+import com.atlassian.sourcemap.Mapping;
+import com.atlassian.sourcemap.SourceMap;
+import com.atlassian.sourcemap.SourceMapImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups of generated positions in random order and in order of position, as when the stack frames are resolved
+ * one by one or the whole file is walked.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupBenchmark {
+    private static final int LOOKUPS = 1024;
+
+    @Param({Corpus.MINIFIED, Corpus.TRANSPILED, Corpus.BATCH})
+    public String shape;
+
+    @Param({"false", "true"})
+    public boolean lazy;
+
+    private SourceMap sourceMap;
+    private int[] randomLines = new int[LOOKUPS];
+    private int[] randomColumns = new int[LOOKUPS];
+    private int[] sequentialLines = new int[LOOKUPS];
+    private int[] sequentialColumns = new int[LOOKUPS];
+
+    @Setup
+    public void setup() {
+        SourceMap built = Corpus.create(shape);
+        sourceMap = new SourceMapImpl(built.generate(), lazy);
+
+        final int[] maxLine = new int[1];
+        final int[] maxColumn = new int[1];
+        built.eachMapping(new SourceMap.EachMappingCallback() {
+            public void apply(Mapping mapping) {
+                maxLine[0] = Math.max(maxLine[0], mapping.getGeneratedLine());
+                maxColumn[0] = Math.max(maxColumn[0], mapping.getGeneratedColumn());
+            }
+        });
+
+        Random random = new Random(42);
+        long[] positions = new long[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            randomLines[i] = random.nextInt(maxLine[0] + 1);
+            randomColumns[i] = random.nextInt(maxColumn[0] + 1);
+            positions[i] = ((long) randomLines[i] << 32) | randomColumns[i];
+        }
+        Arrays.sort(positions);
+        for (int i = 0; i < LOOKUPS; i++) {
+            sequentialLines[i] = (int) (positions[i] >>> 32);
+            sequentialColumns[i] = (int) positions[i];
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void getMappingRandom(Blackhole blackhole) {
+        for (int i = 0; i < LOOKUPS; i++) blackhole.consume(sourceMap.getMapping(randomLines[i], randomColumns[i]));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void getMappingSequential(Blackhole blackhole) {
+        for (int i = 0; i < LOOKUPS; i++)
+            blackhole.consume(sourceMap.getMapping(sequentialLines[i], sequentialColumns[i]));
+    }
+}
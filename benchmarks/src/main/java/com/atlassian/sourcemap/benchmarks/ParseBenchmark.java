@@ -0,0 +1,105 @@
+package com.atlassian.sourcemap.benchmarks;
+
+import com.atlassian.sourcemap.BinarySourceMap;
+import com.atlassian.sourcemap.SourceMap;
+import com.atlassian.sourcemap.SourceMapImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of source map content, eagerly, lazily, from the file and decoding the mappings in parallel, and opening
+ * the binary source map.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+    @Param({Corpus.MINIFIED, Corpus.TRANSPILED, Corpus.BATCH})
+    public String shape;
+
+    private String content;
+    private byte[] bytes;
+    private ExecutorService executor;
+    private ByteBuffer binary;
+    private File file;
+
+    @Setup
+    public void setup() {
+        content = Corpus.create(shape).generate();
+        bytes = content.getBytes(Charset.forName("UTF-8"));
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinarySourceMap.write(new SourceMapImpl(content), out);
+        binary = ByteBuffer.allocateDirect(out.size());
+        binary.put(out.toByteArray());
+        binary.flip();
+        try {
+            file = File.createTempFile("benchmark", ".map");
+            FileOutputStream fileOut = new FileOutputStream(file);
+            try {
+                fileOut.write(bytes);
+            } finally {
+                fileOut.close();
+            }
+        } catch (IOException e) { throw new RuntimeException(e); }
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+        file.delete();
+    }
+
+    @Benchmark
+    public SourceMap parse() {
+        return new SourceMapImpl(content);
+    }
+
+    @Benchmark
+    public SourceMap parseLazy() {
+        return new SourceMapImpl(content, true);
+    }
+
+    @Benchmark
+    public SourceMap parseBytes() {
+        return new SourceMapImpl(bytes);
+    }
+
+    @Benchmark
+    public SourceMap parseFile() {
+        return new SourceMapImpl(file);
+    }
+
+    @Benchmark
+    public SourceMap parseParallel() {
+        return new SourceMapImpl(content, executor);
+    }
+
+    @Benchmark
+    public SourceMap openBinary() {
+        return new BinarySourceMap(binary);
+    }
+}
@@ -0,0 +1,55 @@
+package com.atlassian.sourcemap.benchmarks;
+
+import com.atlassian.sourcemap.SourceMap;
+import com.atlassian.sourcemap.Util;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rebasing minified batch on the map of the joined batch and on the maps of its files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RebaseBenchmark {
+    private SourceMap minifiedBatch;
+    private SourceMap joinedBatch;
+    private SourceMap minifiedFiles;
+    private Map<String, SourceMap> fileMaps;
+
+    @Setup
+    public void setup() {
+        List<SourceMap> batch = Corpus.batch();
+        joinedBatch = Corpus.parse(Corpus.join(batch));
+        minifiedBatch = Corpus.parse(Corpus.minified(Collections.singletonList("/batch.js"),
+            Corpus.BATCH_FILES * Corpus.BATCH_FILE_LINES));
+        fileMaps = Corpus.byFile(batch);
+        minifiedFiles = Corpus.parse(Corpus.minified(Corpus.files(Corpus.BATCH_FILES), Corpus.BATCH_FILE_LINES));
+    }
+
+    @Benchmark
+    public SourceMap rebase() {
+        return Util.rebase(minifiedBatch, joinedBatch);
+    }
+
+    @Benchmark
+    public SourceMap rebaseEachFile() {
+        return Util.rebase(minifiedFiles, fileMaps);
+    }
+}
@@ -0,0 +1,96 @@
+package com.atlassian.sourcemap;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Appendable writing ASCII chars as bytes through the reusable fixed-size buffer, so the memory doesn't grow with the
+ * size of the output. The generated source map consists of ASCII chars only, everything else is escaped.
+ */
+abstract class AsciiOutput implements Appendable {
+    static final int BUFFER_SIZE = 8192;
+
+    protected final byte[] buffer = new byte[BUFFER_SIZE];
+    protected int size = 0;
+
+    static AsciiOutput to(final OutputStream out) {
+        return new AsciiOutput() {
+            @Override
+            protected void write() throws IOException {
+                out.write(buffer, 0, size);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                super.flush();
+                out.flush();
+            }
+        };
+    }
+
+    static AsciiOutput to(final WritableByteChannel out) {
+        return new AsciiOutput() {
+            private final ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+
+            @Override
+            protected void write() throws IOException {
+                byteBuffer.clear().limit(size);
+                while (byteBuffer.hasRemaining()) out.write(byteBuffer);
+            }
+        };
+    }
+
+    static AsciiOutput to(final Writer out) {
+        return new AsciiOutput() {
+            private final char[] charBuffer = new char[BUFFER_SIZE];
+
+            @Override
+            protected void write() throws IOException {
+                for (int i = 0; i < size; i++) charBuffer[i] = (char) buffer[i];
+                out.write(charBuffer, 0, size);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                super.flush();
+                out.flush();
+            }
+        };
+    }
+
+    /**
+     * Writes the content of the buffer to the destination.
+     */
+    protected abstract void write() throws IOException;
+
+    /**
+     * Writes the buffered content, the destination is flushed too if it's possible.
+     */
+    public void flush() throws IOException {
+        drain();
+    }
+
+    private void drain() throws IOException {
+        if (size > 0) write();
+        size = 0;
+    }
+
+    public Appendable append(CharSequence csq) throws IOException {
+        return append(csq, 0, csq.length());
+    }
+
+    public Appendable append(CharSequence csq, int start, int end) throws IOException {
+        for (int i = start; i < end; i++) append(csq.charAt(i));
+        return this;
+    }
+
+    public Appendable append(char c) throws IOException {
+        if (c > 0x7f) throw new IllegalArgumentException("non ASCII char " + (int) c + "!");
+        if (size == BUFFER_SIZE) drain();
+        buffer[size++] = (byte) c;
+        return this;
+    }
+}
@@ -0,0 +1,47 @@
+package com.atlassian.sourcemap;
+
+import java.nio.charset.Charset;
+
+/**
+ * Chars of ASCII text stored as bytes, one byte per char. It's used to keep the encoded mappings read from bytes
+ * without decoding them into string.
+ */
+class AsciiSequence implements CharSequence {
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final byte[] bytes;
+    private final int offset;
+    private final int length;
+
+    /**
+     * @param bytes ASCII bytes, they are not copied and should not be changed.
+     */
+    AsciiSequence(byte[] bytes) {
+        this(bytes, 0, bytes.length);
+    }
+
+    private AsciiSequence(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public char charAt(int index) {
+        if (index < 0 || index >= length) throw new IndexOutOfBoundsException("index " + index);
+        return (char) bytes[offset + index];
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) throw new IndexOutOfBoundsException(start + ", " + end);
+        return new AsciiSequence(bytes, offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, offset, length, ASCII);
+    }
+}
@@ -0,0 +1,159 @@
+package com.atlassian.sourcemap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+/**
+ * Writes batch content and its source map in one pass. The content of every file is copied to the content output
+ * through the fixed-size buffer and its lines are counted while it's copied, then the mappings of the file are
+ * appended to the source map output. Files are separated by `\n`, so the lines are counted like `Util.countLines`
+ * counts them.
+ *
+ * The source map is written as it goes with the `mappings` field first, the `sources` and `names` are written at
+ * the end. So the memory used doesn't depend on the size of the batch, only the names are kept.
+ */
+public class BatchWriter
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Either channel or stream.
+    private final WritableByteChannel contentChannel;
+    private final OutputStream contentStream;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final AsciiOutput sourceMapOut;
+    private final EncodedMappingsBuilder builder;
+
+    private int lineOffset = 0;
+    private boolean isFirst = true;
+    private boolean isFinished = false;
+
+    /**
+     * @param contentOut output of the batch content, it isn't closed.
+     * @param sourceMapOut output of the batch source map, it isn't closed.
+     */
+    public BatchWriter(WritableByteChannel contentOut, WritableByteChannel sourceMapOut)
+    {
+        this(contentOut, null, AsciiOutput.to(sourceMapOut));
+    }
+
+    /**
+     * @param contentOut output of the batch content, it's flushed by `finish` but not closed.
+     * @param sourceMapOut output of the batch source map, it's flushed by `finish` but not closed.
+     */
+    public BatchWriter(OutputStream contentOut, OutputStream sourceMapOut)
+    {
+        this(null, contentOut, AsciiOutput.to(sourceMapOut));
+    }
+
+    private BatchWriter(WritableByteChannel contentChannel, OutputStream contentStream, AsciiOutput sourceMapOut)
+    {
+        this.contentChannel = contentChannel;
+        this.contentStream = contentStream;
+        this.sourceMapOut = sourceMapOut;
+        this.builder = new EncodedMappingsBuilder(sourceMapOut);
+        try {
+            sourceMapOut.append("{\n  \"version\":3,\n  \"mappings\":\"");
+        } catch (IOException e) { throw new RuntimeException(e); }
+    }
+
+    /**
+     * Adds file to the batch, the stream is read till the end but not closed.
+     * @param content content of the file.
+     * @param sourceMap source map of the file, could be null if the file has no source map.
+     * @param offset offset of the source map (note - the offset is inside of its content, not outside).
+     * @return number of lines of the file.
+     */
+    public int add(InputStream content, SourceMap sourceMap, int offset)
+    {
+        int linesCount = copy(content);
+        if (sourceMap != null) builder.append(sourceMap, lineOffset + offset);
+        lineOffset += linesCount;
+        return linesCount;
+    }
+
+    /**
+     * Adds file without offset.
+     */
+    public int add(InputStream content, SourceMap sourceMap)
+    {
+        return add(content, sourceMap, 0);
+    }
+
+    /**
+     * Adds file that has no source map, every line of it is mapped to the same line of the source url.
+     */
+    public int add(InputStream content, String sourceUrl)
+    {
+        int linesCount = copy(content);
+        builder.append(Util.create1to1SourceMap(sourceUrl, linesCount), lineOffset);
+        lineOffset += linesCount;
+        return linesCount;
+    }
+
+    /**
+     * Writes the rest of the content and the source map, no more files could be added after that.
+     */
+    public void finish()
+    {
+        if (isFinished) throw new RuntimeException("batch is already finished!");
+        isFinished = true;
+        try {
+            drain();
+            if (contentStream != null) contentStream.flush();
+            builder.close();
+            sourceMapOut.append("\",\n  \"sources\":[");
+            appendNames(builder.getSourceFileNames());
+            sourceMapOut.append("],\n  \"names\":[");
+            appendNames(builder.getSourceSymbolNames());
+            sourceMapOut.append("]\n}");
+            sourceMapOut.flush();
+        } catch (IOException e) { throw new RuntimeException(e); }
+    }
+
+    /**
+     * Copies the content after the file separator and counts its lines.
+     */
+    private int copy(InputStream content)
+    {
+        if (isFinished) throw new RuntimeException("batch is already finished!");
+        try {
+            // The buffer always has some space left, it's drained when it's full.
+            if (!isFirst) {
+                buffer.put((byte) '\n');
+                if (!buffer.hasRemaining()) drain();
+            }
+            isFirst = false;
+
+            int newlines = 0;
+            int count;
+            while ((count = content.read(buffer.array(), buffer.position(), buffer.remaining())) != -1) {
+                newlines += InternalUtil.countNewlines(buffer.array(), buffer.position(), buffer.position() + count);
+                buffer.position(buffer.position() + count);
+                if (!buffer.hasRemaining()) drain();
+            }
+            return newlines + 1;
+        } catch (IOException e) { throw new RuntimeException(e); }
+    }
+
+    private void drain() throws IOException
+    {
+        buffer.flip();
+        if (contentStream != null) contentStream.write(buffer.array(), 0, buffer.limit());
+        else while (buffer.hasRemaining()) contentChannel.write(buffer);
+        buffer.clear();
+    }
+
+    private void appendNames(List<String> names) throws IOException
+    {
+        for (int i = 0; i < names.size(); i++) {
+            if (i != 0) sourceMapOut.append(",");
+            String name = names.get(i);
+            if (name == null) sourceMapOut.append("null");
+            else InternalUtil.appendEscapedString(sourceMapOut, name);
+        }
+    }
+}
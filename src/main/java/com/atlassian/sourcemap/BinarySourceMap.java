@@ -0,0 +1,341 @@
+package com.atlassian.sourcemap;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read only source map stored in the compact binary format, usually memory mapped from file. Opening it costs the
+ * same for any size, the lookups read the buffer directly and only the names are decoded (once) on the heap. The
+ * source map could be read by multiple threads concurrently.
+ *
+ * The format is big endian, all the values are 32 bit integers except of the string bytes:
+ *
+ * - header: magic `SMAP`, format version, line count, segment count, source file name count, symbol name count and
+ *   byte length of the strings.
+ * - line index: index of the first segment of every line and the segment count at the end, `lineCount + 1` values.
+ * - segments: generated columns, source file name indexes, source lines, source columns and symbol name indexes, as
+ *   five arrays of `segmentCount` values each. Unmapped values are `-1`.
+ * - string table: offset and byte length of every source file name and then of every symbol name, the length of null
+ *   name is `-1`.
+ * - strings: UTF-8 bytes of the names.
+ */
+public class BinarySourceMap implements SourceMap {
+    static final int MAGIC = 0x534d4150;
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 7 * 4;
+    private static final int UNMAPPED = MappingTable.UNMAPPED;
+
+    private final ByteBuffer buffer;
+    private final int lineCount;
+    private final int segmentCount;
+    private final int sourceFileNameCount;
+    private final int sourceSymbolNameCount;
+
+    // Positions of the sections in the buffer.
+    private final int lineStarts;
+    private final int generatedColumns;
+    private final int sourceFileNameIndexes;
+    private final int sourceLines;
+    private final int sourceColumns;
+    private final int sourceSymbolNameIndexes;
+    private final int stringTable;
+    private final int strings;
+
+    // Decoded names, created on the first use.
+    private volatile List<String> sourceFileNames;
+    private volatile List<String> sourceSymbolNames;
+    private volatile ReverseIndex reverseIndex;
+
+    /**
+     * Source map stored in the buffer from its position till the limit, the buffer is not copied and should not be
+     * changed.
+     */
+    public BinarySourceMap(ByteBuffer buffer) {
+        this.buffer = buffer.slice();
+        if (this.buffer.limit() < HEADER_SIZE || this.buffer.getInt(0) != MAGIC)
+            throw new RuntimeException("invalid binary source map!");
+        int version = this.buffer.getInt(4);
+        if (version != VERSION) throw new RuntimeException("unsupported binary source map version " + version + "!");
+        lineCount = this.buffer.getInt(8);
+        segmentCount = this.buffer.getInt(12);
+        sourceFileNameCount = this.buffer.getInt(16);
+        sourceSymbolNameCount = this.buffer.getInt(20);
+        int stringsLength = this.buffer.getInt(24);
+        if (lineCount < 0 || segmentCount < 0 || sourceFileNameCount < 0 || sourceSymbolNameCount < 0
+            || stringsLength < 0) throw new RuntimeException("invalid binary source map!");
+
+        long size = HEADER_SIZE + 4L * (lineCount + 1) + 4L * 5 * segmentCount
+            + 4L * 2 * (sourceFileNameCount + sourceSymbolNameCount) + stringsLength;
+        if (size > this.buffer.limit()) throw new RuntimeException("invalid binary source map!");
+
+        lineStarts = HEADER_SIZE;
+        generatedColumns = lineStarts + 4 * (lineCount + 1);
+        sourceFileNameIndexes = generatedColumns + 4 * segmentCount;
+        sourceLines = sourceFileNameIndexes + 4 * segmentCount;
+        sourceColumns = sourceLines + 4 * segmentCount;
+        sourceSymbolNameIndexes = sourceColumns + 4 * segmentCount;
+        stringTable = sourceSymbolNameIndexes + 4 * segmentCount;
+        strings = stringTable + 4 * 2 * (sourceFileNameCount + sourceSymbolNameCount);
+    }
+
+    /**
+     * Maps the file into memory and opens the source map stored in it, the file should not be changed while the
+     * source map is used.
+     */
+    public static BinarySourceMap open(File file) {
+        return new BinarySourceMap(InternalUtil.map(file));
+    }
+
+    /**
+     * Writes the source map in the binary format, the stream is flushed but not closed.
+     */
+    public static void write(SourceMap sourceMap, OutputStream out) {
+        MappingTable mappings = MappingTable.of(sourceMap);
+        List<String> names = new ArrayList<String>(mappings.getSourceFileNames());
+        names.addAll(mappings.getSourceSymbolNames());
+        byte[][] encodedNames = new byte[names.size()][];
+        int stringsLength = 0;
+        for (int i = 0; i < names.size(); i++) {
+            if (names.get(i) == null) continue;
+            encodedNames[i] = names.get(i).getBytes(Consumer.UTF8);
+            stringsLength += encodedNames[i].length;
+        }
+
+        try {
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeInt(mappings.getLineCount());
+            data.writeInt(mappings.size());
+            data.writeInt(mappings.getSourceFileNames().size());
+            data.writeInt(mappings.getSourceSymbolNames().size());
+            data.writeInt(stringsLength);
+
+            for (int line = 0; line < mappings.getLineCount(); line++) data.writeInt(mappings.getLineStart(line));
+            data.writeInt(mappings.size());
+            for (int i = 0; i < mappings.size(); i++) data.writeInt(mappings.getGeneratedColumn(i));
+            for (int i = 0; i < mappings.size(); i++) data.writeInt(mappings.getSourceFileNameIndex(i));
+            for (int i = 0; i < mappings.size(); i++) data.writeInt(mappings.getSourceLine(i));
+            for (int i = 0; i < mappings.size(); i++) data.writeInt(mappings.getSourceColumn(i));
+            for (int i = 0; i < mappings.size(); i++) data.writeInt(mappings.getSourceSymbolNameIndex(i));
+
+            int offset = 0;
+            for (byte[] name : encodedNames) {
+                data.writeInt(offset);
+                data.writeInt(name == null ? -1 : name.length);
+                if (name != null) offset += name.length;
+            }
+            for (byte[] name : encodedNames) {
+                if (name != null) data.write(name);
+            }
+            data.flush();
+        } catch (IOException e) { throw new RuntimeException(e); }
+    }
+
+    @Override
+    public void addMapping(int generatedLine, int generatedColumn, int sourceLine, int sourceColumn, String sourceFileName) {
+        throw new RuntimeException("can't add mapping to binary source map!");
+    }
+
+    @Override
+    public void addMapping(int generatedLine, int generatedColumn, int sourceLine, int sourceColumn, String sourceFileName, String sourceSymbolName) {
+        throw new RuntimeException("can't add mapping to binary source map!");
+    }
+
+    @Override
+    public void addMapping(Mapping mapping) {
+        throw new RuntimeException("can't add mapping to binary source map!");
+    }
+
+    @Override
+    public Mapping getMapping(int lineNumber, int column) {
+        if (lineNumber < 0 || lineNumber >= lineCount) return null;
+        if (column < 0) throw new RuntimeException("invalid column number!");
+
+        int start = getLineStart(lineNumber);
+        int end = getLineStart(lineNumber + 1) - 1;
+        // If the line is empty or starts after the column return the previous mapping.
+        if (end < start || getInt(generatedColumns, start) > column) return getPreviousMapping(lineNumber);
+
+        while (start < end) {
+            int mid = (start + end + 1) >>> 1;
+            if (getInt(generatedColumns, mid) <= column) start = mid;
+            else end = mid - 1;
+        }
+        return getMappingForEntry(lineNumber, start);
+    }
+
+    /**
+     * Same as `SourceMapImpl.getGeneratedPositions`, the index is built on the first lookup.
+     */
+    public List<Mapping> getGeneratedPositions(String sourceFileName, int sourceLine, int sourceColumn) {
+        return getReverseIndex().getGeneratedPositions(sourceFileName, sourceLine, sourceColumn);
+    }
+
+    /**
+     * Same as `SourceMapImpl.getGeneratedPositions`.
+     */
+    public List<Mapping> getGeneratedPositions(String sourceFileName, int sourceLine) {
+        return getReverseIndex().getGeneratedPositions(sourceFileName, sourceLine);
+    }
+
+    @Override
+    public String generate() {
+        return new Generator(toMappingTable()).generate();
+    }
+
+    /**
+     * Same as `SourceMapImpl.generate(Writer)`.
+     */
+    public void generate(Writer out) {
+        new Generator(toMappingTable()).generate(AsciiOutput.to(out));
+    }
+
+    /**
+     * Same as `SourceMapImpl.generate(OutputStream)`.
+     */
+    public void generate(OutputStream out) {
+        new Generator(toMappingTable()).generate(AsciiOutput.to(out));
+    }
+
+    /**
+     * Same as `SourceMapImpl.generate(WritableByteChannel)`.
+     */
+    public void generate(WritableByteChannel out) {
+        new Generator(toMappingTable()).generate(AsciiOutput.to(out));
+    }
+
+    @Override
+    public String generateForHumans() {
+        return InternalUtil.generateForHumans(this);
+    }
+
+    @Override
+    public List<String> getSourceFileNames() {
+        return new ArrayList<String>(getSourceFileNameList());
+    }
+
+    @Override
+    public void eachMapping(EachMappingCallback callback) {
+        for (int line = 0; line < lineCount; line++) {
+            int end = getLineStart(line + 1);
+            for (int i = getLineStart(line); i < end; i++) callback.apply(createMapping(line, i));
+        }
+    }
+
+    /**
+     * Copy of the mappings decoded on the heap.
+     */
+    MappingTable toMappingTable() {
+        MappingTable table = new MappingTable(new ArrayList<String>(getSourceFileNameList()),
+            new ArrayList<String>(getSourceSymbolNameList()));
+        for (int line = 0; line < lineCount; line++) {
+            int end = getLineStart(line + 1);
+            for (int i = getLineStart(line); i < end; i++) {
+                table.add(line, getInt(generatedColumns, i), getInt(sourceFileNameIndexes, i),
+                    getInt(sourceLines, i), getInt(sourceColumns, i), getInt(sourceSymbolNameIndexes, i));
+            }
+        }
+        table.ensureLineCount(lineCount);
+        table.trimToSize();
+        return table;
+    }
+
+    private int getLineStart(int lineNumber) {
+        return getInt(lineStarts, lineNumber);
+    }
+
+    private int getInt(int section, int index) {
+        return buffer.getInt(section + 4 * index);
+    }
+
+    /**
+     * Returns the mapping entry that proceeds the supplied line or null if no
+     * such entry exists.
+     */
+    private Mapping getPreviousMapping(int lineNumber) {
+        do {
+            if (lineNumber == 0) return null;
+            lineNumber--;
+        } while (getLineStart(lineNumber) == getLineStart(lineNumber + 1));
+        return getMappingForEntry(lineNumber, getLineStart(lineNumber + 1) - 1);
+    }
+
+    /**
+     * Creates an "Mapping" object for the given entry, null if the entry is unmapped.
+     */
+    private Mapping getMappingForEntry(int lineNumber, int index) {
+        return (getInt(sourceFileNameIndexes, index) == UNMAPPED) ? null : createMapping(lineNumber, index);
+    }
+
+    private Mapping createMapping(int lineNumber, int index) {
+        int sourceFileNameIndex = getInt(sourceFileNameIndexes, index);
+        if (sourceFileNameIndex == UNMAPPED) {
+            return new MappingImpl(lineNumber, getInt(generatedColumns, index), UNMAPPED, UNMAPPED, null, null);
+        }
+        int sourceSymbolNameIndex = getInt(sourceSymbolNameIndexes, index);
+        return new MappingImpl(
+            lineNumber,
+            getInt(generatedColumns, index),
+            getInt(sourceLines, index),
+            getInt(sourceColumns, index),
+            getSourceFileNameList().get(sourceFileNameIndex),
+            sourceSymbolNameIndex == UNMAPPED ? null : getSourceSymbolNameList().get(sourceSymbolNameIndex)
+        );
+    }
+
+    private List<String> getSourceFileNameList() {
+        List<String> names = sourceFileNames;
+        if (names == null) {
+            names = readNames(0, sourceFileNameCount);
+            sourceFileNames = names;
+        }
+        return names;
+    }
+
+    private List<String> getSourceSymbolNameList() {
+        List<String> names = sourceSymbolNames;
+        if (names == null) {
+            names = readNames(sourceFileNameCount, sourceSymbolNameCount);
+            sourceSymbolNames = names;
+        }
+        return names;
+    }
+
+    private List<String> readNames(int from, int count) {
+        List<String> names = new ArrayList<String>(count);
+        ByteBuffer source = buffer.duplicate();
+        for (int i = from; i < from + count; i++) {
+            int offset = getInt(stringTable, 2 * i);
+            int length = getInt(stringTable, 2 * i + 1);
+            if (length < 0) {
+                names.add(null);
+                continue;
+            }
+            byte[] bytes = new byte[length];
+            source.position(strings + offset);
+            source.get(bytes);
+            names.add(new String(bytes, Consumer.UTF8));
+        }
+        return names;
+    }
+
+    private ReverseIndex getReverseIndex() {
+        ReverseIndex index = reverseIndex;
+        if (index == null) {
+            index = new ReverseIndex(toMappingTable());
+            // Sorting everything before it's published, so the lookups don't change it.
+            index.sortAll();
+            reverseIndex = index;
+        }
+        return index;
+    }
+}
@@ -1,12 +1,16 @@
 package com.atlassian.sourcemap;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonParseException;
-
+import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Parsing SourceMap version 3.
@@ -14,71 +18,252 @@ import java.util.List;
  * Code based on Google Closure Compiler https://code.google.com/p/closure-compiler
  */
 class Consumer {
-    static final int UNMAPPED = -1;
-    private List<String> sourceFileNames;
-    private List<String> sourceSymbolNames;
-    private ArrayList<ArrayList<Mapping>> lines = null;
+    static final int UNMAPPED = MappingTable.UNMAPPED;
+    static final Charset UTF8 = Charset.forName("UTF-8");
+    private List<String> sourceFileNames = new ArrayList<String>();
+    private List<String> sourceSymbolNames = new ArrayList<String>();
+    private MappingTable mappings = new MappingTable(sourceFileNames, sourceSymbolNames);
+    // Not null if mappings are decoded lazily or it's an index map.
+    private MappingReader lazyMappings = null;
+    private EncodedMappings encoded = null;
     private String sourceRoot;
 
     public Consumer(String sourceMapData) {
-        parse(sourceMapData);
+        this(new StringReader(sourceMapData));
     }
 
     /**
-     * Parses the given contents containing a source map.
+     * @param lazy if true the mappings are kept encoded and every line is decoded when it's accessed.
      */
-    private void parse(String sourceMapData) {
-        SourceMapJson sourceMapRoot = null;
-        try {
-            sourceMapRoot = new Gson().fromJson(sourceMapData, SourceMapJson.class);
-        } catch (JsonParseException e) { throw new RuntimeException(e); }
+    public Consumer(String sourceMapData, boolean lazy) {
+        this(new StringReader(sourceMapData), lazy);
+    }
+
+    /**
+     * @param executor executor to decode the mappings on multiple threads.
+     */
+    public Consumer(String sourceMapData, ExecutorService executor) {
+        parse(new JsonScanner(new StringReader(sourceMapData)), false, executor);
+    }
+
+    /**
+     * @param pool pool to intern the source file and symbol names in.
+     */
+    public Consumer(String sourceMapData, NamePool pool) {
+        sourceFileNames = new PooledNames(pool);
+        sourceSymbolNames = new PooledNames(pool);
+        mappings = new MappingTable(sourceFileNames, sourceSymbolNames);
+        parse(new JsonScanner(new StringReader(sourceMapData)), false, null);
+    }
+
+    public Consumer(byte[] sourceMapData) {
+        this(ByteBuffer.wrap(sourceMapData));
+    }
+
+    /**
+     * Parses UTF-8 encoded source map from the buffer position till its limit, the mappings are decoded straight
+     * from the bytes and kept as bytes.
+     */
+    public Consumer(ByteBuffer sourceMapData) {
+        parse(new JsonScanner(sourceMapData), false, null);
+    }
+
+    /**
+     * Parses UTF-8 encoded source map file, the file is memory mapped while it's parsed.
+     */
+    public Consumer(File sourceMapFile) {
+        this(InternalUtil.map(sourceMapFile));
+    }
+
+    /**
+     * Parses UTF-8 encoded source map, the stream isn't closed.
+     */
+    public Consumer(InputStream sourceMapData) {
+        this(new InputStreamReader(sourceMapData, UTF8));
+    }
+
+    /**
+     * Parses source map, the reader isn't closed.
+     */
+    public Consumer(Reader sourceMapData) {
+        this(sourceMapData, false);
+    }
+
+    private Consumer(Reader sourceMapData, boolean lazy) {
+        parse(new JsonScanner(sourceMapData), lazy, null);
+    }
+
+    /**
+     * Parses the given contents containing a source map in one pass, fields could be in any order, the unknown
+     * fields are skipped and the mappings are decoded as they are read (or just kept if decoding is lazy). The index
+     * map sections are always parsed lazily. If the executor is given the mappings are decoded in parallel after
+     * they have been read.
+     */
+    private void parse(JsonScanner json, boolean lazy, ExecutorService executor) {
+        int version = 0;
+        MappingBuilder builder = null;
+        CharSequence encodedMappings = "";
+        String rawSourceFileNames = "[]";
+        String rawSourceSymbolNames = "[]";
+        IndexMappings sections = null;
+        json.beginDocument();
+        boolean isFirst = true;
+        while (json.hasNextField(isFirst)) {
+            isFirst = false;
+            String name = json.nextName();
+            if ("version".equals(name)) version = json.nextInt();
+            else if ("sources".equals(name)) rawSourceFileNames = nextNames(json, sourceFileNames);
+            else if ("names".equals(name)) rawSourceSymbolNames = nextNames(json, sourceSymbolNames);
+            else if ("sourceRoot".equals(name)) sourceRoot = json.nextStringOrNull();
+            else if ("sections".equals(name)) sections = parseSections(json);
+            else if ("mappings".equals(name) && (lazy || executor != null)) encodedMappings = json.nextString();
+            else if ("mappings".equals(name) && json.hasBytes()) {
+                // Copying the mappings as bytes and decoding them from the copy.
+                encodedMappings = json.nextAsciiString();
+                builder = new MappingBuilder(new CharSequenceIterator(encodedMappings));
+                builder.build();
+            }
+            else if ("mappings".equals(name)) {
+                // Decoding the mappings as they are read and keeping the encoded form too.
+                StringBuilder capture = new StringBuilder();
+                builder = new MappingBuilder(json.nextStringIterator(capture));
+                builder.build();
+                encodedMappings = capture.toString();
+            }
+            else json.skipValue();
+        }
+        json.end();
 
         // Check basic assertions about the format.
-        int version = sourceMapRoot.version;
         if (version != 3) throw new RuntimeException("Unknown version: " + version);
+        if (builder != null) builder.checkIndexes();
+
+        if (sections != null) {
+            if (builder != null || encodedMappings.length() > 0)
+                throw new RuntimeException("index map can't have mappings!");
+            mappings = null;
+            lazyMappings = sections;
+            return;
+        }
+        if (lazy) {
+            mappings = null;
+            lazyMappings = new LazyMappings(encodedMappings.toString(), sourceFileNames, sourceSymbolNames);
+        }
+        else if (executor != null) {
+            mappings = new ParallelMappingDecoder(encodedMappings.toString(), sourceFileNames, sourceSymbolNames)
+                .decode(executor);
+        }
+        else mappings.trimToSize();
+        encoded = new EncodedMappings(sourceFileNames, sourceSymbolNames, rawSourceFileNames, rawSourceSymbolNames,
+            encodedMappings);
+    }
 
-        sourceFileNames = Arrays.asList(sourceMapRoot.sources);
-        sourceSymbolNames = Arrays.asList(sourceMapRoot.names);
+    /**
+     * Reads the names, the raw JSON array is returned to be written as it is. The pooled names are written from the
+     * pool that has them escaped already, so their raw array isn't kept and null is returned.
+     */
+    private static String nextNames(JsonScanner json, List<String> names) {
+        if (!(names instanceof PooledNames)) return json.nextRawStringArray(names);
+        json.nextStringArray(names);
+        return null;
+    }
 
-        lines = new ArrayList<ArrayList<Mapping>>();
+    /**
+     * Reads sections of index map, the section source maps are kept unparsed.
+     */
+    private static IndexMappings parseSections(JsonScanner json) {
+        List<int[]> offsets = new ArrayList<int[]>();
+        List<String> contents = new ArrayList<String>();
+        json.beginArray();
+        boolean isFirstSection = true;
+        while (json.hasNextElement(isFirstSection)) {
+            isFirstSection = false;
+            int[] offset = null;
+            String content = null;
+            json.beginObject();
+            boolean isFirst = true;
+            while (json.hasNextField(isFirst)) {
+                isFirst = false;
+                String name = json.nextName();
+                if ("offset".equals(name)) offset = parseOffset(json);
+                else if ("map".equals(name)) content = json.nextRawValue();
+                else if ("url".equals(name)) throw new RuntimeException("sections with url are not supported!");
+                else json.skipValue();
+            }
+            if (offset == null) throw new RuntimeException("section offset required!");
+            if (content == null) throw new RuntimeException("section map required!");
+            offsets.add(offset);
+            contents.add(content);
+        }
 
-        new MappingBuilder(sourceMapRoot.mappings).build();
+        int[] lines = new int[offsets.size()];
+        int[] columns = new int[offsets.size()];
+        for (int i = 0; i < offsets.size(); i++) {
+            lines[i] = offsets.get(i)[0];
+            columns[i] = offsets.get(i)[1];
+        }
+        return new IndexMappings(lines, columns, contents.toArray(new String[contents.size()]));
+    }
+
+    private static int[] parseOffset(JsonScanner json) {
+        int[] offset = new int[2];
+        json.beginObject();
+        boolean isFirst = true;
+        while (json.hasNextField(isFirst)) {
+            isFirst = false;
+            String name = json.nextName();
+            if ("line".equals(name)) offset[0] = json.nextInt();
+            else if ("column".equals(name)) offset[1] = json.nextInt();
+            else json.skipValue();
+        }
+        if (offset[0] < 0 || offset[1] < 0) throw new RuntimeException("invalid section offset!");
+        return offset;
     }
 
     public Mapping getMapping(int lineNumber, int column)
     {
-        if (lineNumber < 0 || lineNumber >= lines.size()) return null;
-
-        if (lineNumber < 0) throw new RuntimeException("invalid line number!");
-        if (column < 0) throw new RuntimeException("invalid column number!");
-
+        if (lazyMappings != null) return lazyMappings.getMapping(lineNumber, column);
+        return mappings.getMapping(lineNumber, column);
+    }
 
-        // If the line is empty return the previous mapping.
-        if (lines.get(lineNumber) == null) return getPreviousMapping(lineNumber);
+    public void eachMapping(SourceMap.EachMappingCallback cb) {
+        if (lazyMappings != null) lazyMappings.eachMapping(cb);
+        else mappings.eachMapping(cb);
+    }
 
-        ArrayList<Mapping> entries = lines.get(lineNumber);
-        // No empty lists.
-        if (entries.isEmpty()) throw new RuntimeException("empty list of entries!");
-        if (entries.get(0).getGeneratedColumn() > column) return getPreviousMapping(lineNumber);
+    /**
+     * Mappings as they are in the source map, null for index map.
+     */
+    EncodedMappings getEncodedMappings() {
+        return encoded;
+    }
 
-        int index = search(entries, column, 0, entries.size() - 1);
-        if (index < 0) throw new RuntimeException("can't find entry!");
-        return getMappingForEntry(entries.get(index));
+    /**
+     * Lazily decoded mappings or sections of index map, null if the mappings aren't decoded lazily or have been
+     * decoded completely.
+     */
+    MappingReader getLazyMappings() {
+        return lazyMappings;
     }
 
-    public void eachMapping(SourceMap.EachMappingCallback cb) {
-        for (List<Mapping> line : lines) {
-            if (line != null) {
-                for (Mapping mapping : line) cb.apply(mapping);
-            }
+    /**
+     * Decoded mappings, if the mappings are decoded lazily they are decoded completely.
+     */
+    MappingTable getMappingTable() {
+        if (lazyMappings != null) {
+            mappings = lazyMappings.toMappingTable();
+            lazyMappings = null;
         }
+        return mappings;
     }
 
     public Collection<String> getSourceFileNames() {
+        if (lazyMappings != null) return lazyMappings.getSourceFileNames();
         return sourceFileNames;
     }
 
     public Collection<String> getSourceSymbolNames() {
+        if (lazyMappings != null) return lazyMappings.getSourceSymbolNames();
         return sourceSymbolNames;
     }
 
@@ -89,7 +274,7 @@ class Consumer {
     private class MappingBuilder
     {
         private static final int MAX_ENTRY_VALUES = 5;
-        private final StringCharIterator content;
+        private final PeekingCharIterator content;
         private int line = 0;
         private int previousCol = 0;
         private int previousSrcId = 0;
@@ -97,21 +282,23 @@ class Consumer {
         private int previousSrcColumn = 0;
         private int previousNameId = 0;
 
-        MappingBuilder(String lineMap) {
-            this.content = new StringCharIterator(lineMap);
+        // The `sources` and `names` could follow the `mappings`, so the indexes are checked at the end.
+        private int maxSrcId = -1;
+        private int maxNameId = -1;
+        private boolean isUnsorted = false;
+
+        MappingBuilder(PeekingCharIterator content) {
+            this.content = content;
         }
 
         void build()
         {
             int [] temp = new int[MAX_ENTRY_VALUES];
-            ArrayList<Mapping> entries = new ArrayList<Mapping>();
             while (content.hasNext()) {
                 // ';' denotes a new line.
                 if (tryConsumeToken(';')) {
-                    // The line is complete, store the result
-                    completeLine(entries);
-                    // A new array list for the next line.
-                    if (!entries.isEmpty()) entries = new ArrayList<Mapping>();
+                    // The line is complete.
+                    completeLine();
                 }
                 else {
                     // grab the next entry for the current line.
@@ -120,9 +307,7 @@ class Consumer {
                         temp[entryValues] = nextValue();
                         entryValues++;
                     }
-                    Mapping entry = decodeEntry(line, temp, entryValues);
-
-                    entries.add(entry);
+                    decodeEntry(line, temp, entryValues);
 
                     // Consume the separating token, if there is one.
                     tryConsumeToken(',');
@@ -130,33 +315,28 @@ class Consumer {
             }
 
             // Some source map generator (e.g.UglifyJS) generates lines without
-            // a trailing line separator. So add the rest of the content.
-            if (!entries.isEmpty()) completeLine(entries);
+            // a trailing line separator. The rest of the content is already stored
+            // because adding an entry also adds its line.
+
+            // Some source map generators produce segments out of column order.
+            if (isUnsorted) mappings.sortLines();
         }
 
-        private void completeLine(ArrayList<Mapping> entries) {
-            // The line is complete, store the result for the line,
-            // null if the line is empty.
-            if (!entries.isEmpty()) lines.add(entries);
-            else lines.add(null);
+        private void completeLine() {
+            // The line is complete, the empty lines are stored as lines without entries.
             line++;
+            mappings.ensureLineCount(line);
             previousCol = 0;
         }
 
         /**
          * Decodes the next entry, using the previous encountered values to
-         * decode the relative values.
+         * decode the relative values, and stores it.
          *
          * @param vals An array of integers that represent values in the entry.
          * @param entryValues The number of entries in the array.
-         * @return The entry object.
          */
-        private Mapping decodeEntry(int generatedLine, int[] vals, int entryValues) {
-            Mapping entry;
-            int sourceFileNameIndex;
-            String sourceFileName;
-            int sourceSymbolNameIndex;
-            String sourceSymbolName;
+        private void decodeEntry(int generatedLine, int[] vals, int entryValues) {
             switch (entryValues) {
                 // The first values, if present are in the following order:
                 //   0: the starting column in the current line of the generated file
@@ -170,66 +350,56 @@ class Consumer {
                 // method.
                 case 1:
                     // An unmapped section of the generated file.
-                    entry = new MappingImpl(
-                        generatedLine,
-                        vals[0] + previousCol,
-                        UNMAPPED,
-                        UNMAPPED,
-                        null,
-                        null
-                    );
-                    // Set the values see for the next entry.
-                    previousCol = entry.getGeneratedColumn();
-                    return entry;
+                    previousCol = nextColumn(vals[0]);
+                    mappings.addDecoded(generatedLine, previousCol, UNMAPPED, UNMAPPED, UNMAPPED, UNMAPPED);
+                    return;
 
                 case 4:
                     // A mapped section of the generated file.
-                    sourceFileNameIndex = vals[1] + previousSrcId;
-                    sourceFileName = sourceFileNames.get(sourceFileNameIndex);
-
-                    entry = new MappingImpl(
-                        generatedLine,
-                        vals[0] + previousCol,
-                        vals[2] + previousSrcLine,
-                        vals[3] + previousSrcColumn,
-                        sourceFileName,
-                        null);
-                    // Set the values see for the next entry.
-                    previousCol = entry.getGeneratedColumn();
-                    previousSrcLine = entry.getSourceLine();
-                    previousSrcColumn = entry.getSourceColumn();
-                    previousSrcId = sourceFileNameIndex;
-                    return entry;
+                    previousCol = nextColumn(vals[0]);
+                    previousSrcId = vals[1] + previousSrcId;
+                    previousSrcLine = vals[2] + previousSrcLine;
+                    previousSrcColumn = vals[3] + previousSrcColumn;
+                    maxSrcId = checkIndex(previousSrcId, maxSrcId);
+                    mappings.addDecoded(generatedLine, previousCol, previousSrcId, previousSrcLine, previousSrcColumn,
+                        UNMAPPED);
+                    return;
 
                 case 5:
                     // A mapped section of the generated file, that has an associated
                     // name.
-                    sourceFileNameIndex = vals[1] + previousSrcId;
-                    sourceFileName = sourceFileNames.get(sourceFileNameIndex);
-                    sourceSymbolNameIndex = vals[4] + previousNameId;
-                    sourceSymbolName = sourceSymbolNames.get(sourceFileNameIndex);
-
-                    entry = new MappingImpl(
-                        generatedLine,
-                        vals[0] + previousCol,
-                        vals[2] + previousSrcLine,
-                        vals[3] + previousSrcColumn,
-                        sourceFileName,
-                        sourceSymbolName
-                    );
-                    // Set the values see for the next entry.
-                    previousCol = entry.getGeneratedColumn();
-                    previousSrcLine = entry.getSourceLine();
-                    previousSrcColumn = entry.getSourceColumn();
-                    previousSrcId = sourceFileNameIndex;
-                    previousNameId = sourceSymbolNameIndex;
-                    return entry;
+                    previousCol = nextColumn(vals[0]);
+                    previousSrcId = vals[1] + previousSrcId;
+                    previousSrcLine = vals[2] + previousSrcLine;
+                    previousSrcColumn = vals[3] + previousSrcColumn;
+                    previousNameId = vals[4] + previousNameId;
+                    maxSrcId = checkIndex(previousSrcId, maxSrcId);
+                    maxNameId = checkIndex(previousNameId, maxNameId);
+                    mappings.addDecoded(generatedLine, previousCol, previousSrcId, previousSrcLine, previousSrcColumn,
+                        previousNameId);
+                    return;
 
                 default:
                     throw new IllegalStateException("Unexpected number of values for entry:" + entryValues);
             }
         }
 
+        private int nextColumn(int delta) {
+            // The column could go back only if the segments are out of order.
+            if (delta < 0) isUnsorted = true;
+            return previousCol + delta;
+        }
+
+        private int checkIndex(int index, int maxIndex) {
+            if (index < 0) throw new RuntimeException("invalid name index " + index + "!");
+            return Math.max(index, maxIndex);
+        }
+
+        void checkIndexes() {
+            if (maxSrcId >= sourceFileNames.size()) throw new RuntimeException("invalid name index " + maxSrcId + "!");
+            if (maxNameId >= sourceSymbolNames.size()) throw new RuntimeException("invalid name index " + maxNameId + "!");
+        }
+
         private boolean tryConsumeToken(char token) {
             if (content.hasNext() && content.peek() == token) {
                 // consume the comma
@@ -251,84 +421,32 @@ class Consumer {
     }
 
     /**
-     * Perform a binary search on the array to find a section that covers
-     * the target column.
-     */
-    private int search(ArrayList<Mapping> entries, int target, int start, int end) {
-        while (true) {
-            int mid = ((end - start) / 2) + start;
-            int compare = compareEntry(entries, mid, target);
-            if (compare == 0) return mid;
-            else if (compare < 0) {
-                // it is in the upper half
-                start = mid + 1;
-                if (start > end) return end;
-            } else {
-                // it is in the lower half
-                end = mid - 1;
-                if (end < start) return end;
-            }
-        }
-    }
-
-    /**
-     * Compare an array entry's column value to the target column value.
-     */
-    private int compareEntry(ArrayList<Mapping> entries, int entry, int target) {
-        return entries.get(entry).getGeneratedColumn() - target;
-    }
-
-    /**
-     * Returns the mapping entry that proceeds the supplied line or null if no
-     * such entry exists.
+     * The Base64VLQ CharIterator that also allows to look at the next char without consuming it.
      */
-    private Mapping getPreviousMapping(int lineNumber) {
-        do {
-            if (lineNumber == 0) return null;
-            lineNumber--;
-        } while (lines.get(lineNumber) == null);
-        ArrayList<Mapping> entries = lines.get(lineNumber);
-        return getMappingForEntry(entries.get(entries.size() - 1));
+    interface PeekingCharIterator extends Base64VLQ.CharIterator {
+        char peek();
     }
 
-    /**
-     * Creates an "Mapping" object for the given entry object.
-     */
-    private Mapping getMappingForEntry(Mapping entry) {
-        return (entry.getSourceFileName() == null) ? null : entry;
-    }
-
-    /**
-     * A implementation of the Base64VLQ CharIterator used for decoding the
-     * mappings encoded in the JSON string.
-     */
-    private static class StringCharIterator implements Base64VLQ.CharIterator {
-        final String content;
-        final int length;
-        int current = 0;
+    private static class CharSequenceIterator implements PeekingCharIterator {
+        private final CharSequence content;
+        private int position = 0;
 
-        StringCharIterator(String content) {
+        CharSequenceIterator(CharSequence content) {
             this.content = content;
-            this.length = content.length();
         }
 
-        public char next() {
-            return content.charAt(current++);
+        public boolean hasNext() {
+            return position < content.length();
         }
 
-        char peek() {
-            return content.charAt(current);
+        public char next() {
+            if (position >= content.length()) throw new IllegalStateException("Unexpected end of entry");
+            return content.charAt(position++);
         }
 
-        public boolean hasNext() {
-            return current < length;
+        public char peek() {
+            if (position >= content.length()) throw new IllegalStateException("Unexpected end of entry");
+            return content.charAt(position);
         }
     }
-
-    public static class SourceMapJson {
-        public int version;
-        public String[] sources;
-        public String[] names;
-        public String mappings;
-    }
 }
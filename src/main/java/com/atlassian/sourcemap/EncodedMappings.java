@@ -0,0 +1,241 @@
+package com.atlassian.sourcemap;
+
+import java.util.List;
+
+/**
+ * Mappings in the encoded form, as they are stored in the `mappings` field of source map, together with the source
+ * file and symbol names they refer to. It allows to copy the mappings without decoding it.
+ */
+class EncodedMappings {
+    private final List<String> sourceFileNames;
+    private final List<String> sourceSymbolNames;
+    // The `sources` and `names` JSON arrays as they have been parsed, null if they should be escaped again.
+    private final String rawSourceFileNames;
+    private final String rawSourceSymbolNames;
+    // String or ASCII bytes.
+    private final CharSequence mappings;
+    // Volatile because the frozen source map could be joined from multiple threads.
+    private volatile Summary summary = null;
+
+    EncodedMappings(List<String> sourceFileNames, List<String> sourceSymbolNames, CharSequence mappings) {
+        this(sourceFileNames, sourceSymbolNames, null, null, mappings);
+    }
+
+    /**
+     * Mappings with the summary known in advance.
+     */
+    EncodedMappings(List<String> sourceFileNames, List<String> sourceSymbolNames, CharSequence mappings,
+                    Summary summary) {
+        this(sourceFileNames, sourceSymbolNames, null, null, mappings);
+        this.summary = summary;
+    }
+
+    /**
+     * @param rawSourceFileNames JSON array of source file names, used only if it's ASCII, null if there's no raw
+     * array (the pooled names shouldn't have it).
+     * @param rawSourceSymbolNames JSON array of symbol names, used only if it's ASCII, null if there's no raw array.
+     */
+    EncodedMappings(List<String> sourceFileNames, List<String> sourceSymbolNames, String rawSourceFileNames,
+                    String rawSourceSymbolNames, CharSequence mappings) {
+        this.sourceFileNames = sourceFileNames;
+        this.sourceSymbolNames = sourceSymbolNames;
+        // The generated source map is ASCII only.
+        this.rawSourceFileNames = isAscii(rawSourceFileNames) ? rawSourceFileNames : null;
+        this.rawSourceSymbolNames = isAscii(rawSourceSymbolNames) ? rawSourceSymbolNames : null;
+        this.mappings = mappings;
+    }
+
+    /**
+     * Copy with all the mappings shifted down by the given number of lines, it's just prefixed by empty lines.
+     */
+    EncodedMappings withLineOffset(int offset) {
+        if (offset < 0) throw new RuntimeException("invalid offset " + offset + "!");
+        StringBuilder shifted = new StringBuilder(offset + mappings.length());
+        for (int i = 0; i < offset; i++) shifted.append(';');
+        shifted.append(mappings);
+        return new EncodedMappings(PooledNames.copyOf(sourceFileNames), PooledNames.copyOf(sourceSymbolNames),
+            rawSourceFileNames, rawSourceSymbolNames, shifted.toString());
+    }
+
+    List<String> getSourceFileNames() {
+        return sourceFileNames;
+    }
+
+    List<String> getSourceSymbolNames() {
+        return sourceSymbolNames;
+    }
+
+    /**
+     * The same mappings referring to the copy of the names.
+     */
+    EncodedMappings withNames(List<String> sourceFileNames, List<String> sourceSymbolNames) {
+        if (!sourceFileNames.equals(this.sourceFileNames) || !sourceSymbolNames.equals(this.sourceSymbolNames))
+            throw new RuntimeException("names should be the same!");
+        return new EncodedMappings(sourceFileNames, sourceSymbolNames, rawSourceFileNames, rawSourceSymbolNames,
+            mappings);
+    }
+
+    String getRawSourceFileNames() {
+        return rawSourceFileNames;
+    }
+
+    String getRawSourceSymbolNames() {
+        return rawSourceSymbolNames;
+    }
+
+    CharSequence getMappings() {
+        return mappings;
+    }
+
+    /**
+     * Rough estimate of the heap used by the encoded mappings, the names are not included.
+     */
+    long estimateSize() {
+        long size = 2L * mappings.length();
+        if (rawSourceFileNames != null) size += 2L * rawSourceFileNames.length();
+        if (rawSourceSymbolNames != null) size += 2L * rawSourceSymbolNames.length();
+        return size;
+    }
+
+    private static boolean isAscii(String s) {
+        if (s == null) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) > 0x7f) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Information needed to copy the mappings into another mappings, it's calculated on the first call by scanning
+     * the mappings without storing the decoded segments.
+     */
+    Summary getSummary() {
+        Summary result = summary;
+        if (result == null) {
+            result = new Summary(mappings);
+            summary = result;
+        }
+        return result;
+    }
+
+    /**
+     * The VLQ fields are relative to the previous segment, so when the mappings are copied after another mappings
+     * only the first segment with source and the first segment with symbol name need to be re-encoded, the rest of the
+     * segments could be copied as it is. The summary knows where those segments are and what is the state at the end
+     * of the mappings.
+     */
+    static class Summary {
+        static final int MAX_ENTRY_VALUES = 5;
+
+        // Position after the last segment, the trailing empty lines are not included.
+        int end = 0;
+        // Index of the last line with segments, -1 if there are no segments at all.
+        int lastLine = -1;
+        // Generated column of the last segment.
+        int lastColumn = 0;
+
+        // Position of the first segment with source, -1 if there are no such segments. Its values are absolute
+        // because there's nothing before it.
+        int firstSourceStart = -1;
+        int firstSourceEnd = -1;
+        final int[] firstSourceValues = new int[MAX_ENTRY_VALUES];
+        int firstSourceValueCount = 0;
+
+        // Position of the first segment with symbol name, -1 if there are no such segments. Only its name value is
+        // absolute.
+        int firstNameStart = -1;
+        int firstNameEnd = -1;
+        final int[] firstNameValues = new int[MAX_ENTRY_VALUES];
+
+        // State after the last segment.
+        int sourceFileNameIndex = 0;
+        int sourceLine = 0;
+        int sourceColumn = 0;
+        int sourceSymbolNameIndex = 0;
+
+        /**
+         * Empty summary, the fields should be set by the caller.
+         */
+        Summary() {}
+
+        Summary(CharSequence mappings) {
+            int[] values = new int[MAX_ENTRY_VALUES];
+            Cursor cursor = new Cursor(mappings);
+            int line = 0;
+            int column = 0;
+            while (cursor.hasNext()) {
+                char c = cursor.peek();
+                if (c == ';') {
+                    cursor.next();
+                    line++;
+                    column = 0;
+                    continue;
+                }
+                if (c == ',') {
+                    cursor.next();
+                    continue;
+                }
+
+                int start = cursor.position;
+                int count = 0;
+                while (!cursor.isEntryComplete()) {
+                    if (count == MAX_ENTRY_VALUES)
+                        throw new IllegalStateException("Unexpected number of values for entry in line " + line);
+                    values[count++] = Base64VLQ.decode(cursor);
+                }
+                if (count != 1 && count != 4 && count != 5)
+                    throw new IllegalStateException("Unexpected number of values for entry:" + count);
+
+                column += values[0];
+                if (count >= 4) {
+                    if (firstSourceStart < 0) {
+                        firstSourceStart = start;
+                        firstSourceEnd = cursor.position;
+                        firstSourceValueCount = count;
+                        System.arraycopy(values, 0, firstSourceValues, 0, count);
+                    }
+                    sourceFileNameIndex += values[1];
+                    sourceLine += values[2];
+                    sourceColumn += values[3];
+                }
+                if (count == 5) {
+                    if (firstNameStart < 0) {
+                        firstNameStart = start;
+                        firstNameEnd = cursor.position;
+                        System.arraycopy(values, 0, firstNameValues, 0, count);
+                    }
+                    sourceSymbolNameIndex += values[4];
+                }
+                end = cursor.position;
+                lastLine = line;
+                lastColumn = column;
+            }
+        }
+    }
+
+    private static class Cursor implements Base64VLQ.CharIterator {
+        private final CharSequence content;
+        private int position = 0;
+
+        Cursor(CharSequence content) {
+            this.content = content;
+        }
+
+        public boolean hasNext() {
+            return position < content.length();
+        }
+
+        public char next() {
+            if (position >= content.length()) throw new IllegalStateException("Unexpected end of entry");
+            return content.charAt(position++);
+        }
+
+        char peek() {
+            return content.charAt(position);
+        }
+
+        boolean isEntryComplete() {
+            return position >= content.length() || content.charAt(position) == ',' || content.charAt(position) == ';';
+        }
+    }
+}
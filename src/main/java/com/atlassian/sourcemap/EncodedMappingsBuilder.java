@@ -0,0 +1,275 @@
+package com.atlassian.sourcemap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds encoded mappings by appending mappings of multiple source maps.
+ *
+ * If the source map is available in the encoded form its mappings are copied as they are, only the first segment
+ * with source and the first segment with symbol name are re-encoded relative to the previous source map. Its source
+ * file and symbol names are mapped to the joined names by a constant shift, if they aren't already joined in the
+ * same order they are appended as a new range, so the same name could be listed more than once (like in
+ * `IncrementalSourceMapJoiner`). Otherwise the mappings are encoded one by one.
+ */
+class EncodedMappingsBuilder {
+    private final Appendable out;
+
+    private final JoinedNames sourceFileNames;
+    private final JoinedNames sourceSymbolNames;
+
+    // The line the next segment would be written to.
+    private int line = 0;
+    private boolean lineHasSegments = false;
+    private int previousColumn = 0;
+
+    // Previous values used for storing relative ids.
+    private int previousSourceFileNameId = 0;
+    private int previousSourceLine = 0;
+    private int previousSourceColumn = 0;
+    private int previousSourceSymbolNameId = 0;
+
+    EncodedMappingsBuilder(Appendable out) {
+        this(out, null);
+    }
+
+    /**
+     * @param pool if not null the joined names are interned in it and the names of the same pool are looked up by id.
+     */
+    EncodedMappingsBuilder(Appendable out, NamePool pool) {
+        this.out = out;
+        this.sourceFileNames = new JoinedNames(pool);
+        this.sourceSymbolNames = new JoinedNames(pool);
+    }
+
+    List<String> getSourceFileNames() {
+        return sourceFileNames.names;
+    }
+
+    List<String> getSourceSymbolNames() {
+        return sourceSymbolNames.names;
+    }
+
+    /**
+     * Appends mappings of source map, with all the generated lines shifted by the offset. Mappings should be appended
+     * in order.
+     */
+    void append(SourceMap sourceMap, final int lineOffset) {
+        EncodedMappings encoded = null;
+        if (sourceMap instanceof SourceMapImpl) encoded = ((SourceMapImpl) sourceMap).getEncodedMappings();
+        else if (sourceMap instanceof FrozenSourceMap) encoded = ((FrozenSourceMap) sourceMap).getEncodedMappings();
+        if (encoded != null && tryCopy(encoded, lineOffset)) return;
+
+        sourceMap.eachMapping(new SourceMap.EachMappingCallback() {
+            public void apply(Mapping mapping) {
+                addMapping(
+                    lineOffset + mapping.getGeneratedLine(),
+                    mapping.getGeneratedColumn(),
+                    mapping.getSourceLine(),
+                    mapping.getSourceColumn(),
+                    mapping.getSourceFileName(),
+                    mapping.getSourceSymbolName()
+                );
+            }
+        });
+    }
+
+    /**
+     * Appends mapping, the mapping without source file name is written as unmapped segment.
+     */
+    void addMapping(int generatedLine, int generatedColumn, int sourceLine, int sourceColumn, String sourceFileName,
+                    String sourceSymbolName) {
+        if (generatedLine < line || (generatedLine == line && lineHasSegments && generatedColumn < previousColumn))
+            throw new RuntimeException("mappings should be added in a proper order!");
+        try {
+            moveToLine(generatedLine);
+            if (lineHasSegments) out.append(',');
+            lineHasSegments = true;
+
+            // The relative generated column number
+            Base64VLQ.encode(out, generatedColumn - previousColumn);
+            previousColumn = generatedColumn;
+            if (sourceFileName == null) return;
+
+            // The relative source file id
+            int sourceId = sourceFileNames.indexOfOrAdd(sourceFileName);
+            Base64VLQ.encode(out, sourceId - previousSourceFileNameId);
+            previousSourceFileNameId = sourceId;
+
+            // The relative source file line and column
+            Base64VLQ.encode(out, sourceLine - previousSourceLine);
+            previousSourceLine = sourceLine;
+            Base64VLQ.encode(out, sourceColumn - previousSourceColumn);
+            previousSourceColumn = sourceColumn;
+
+            if (sourceSymbolName != null) {
+                // The relative id for the associated symbol name
+                int nameId = sourceSymbolNames.indexOfOrAdd(sourceSymbolName);
+                Base64VLQ.encode(out, nameId - previousSourceSymbolNameId);
+                previousSourceSymbolNameId = nameId;
+            }
+        } catch (IOException e) { throw new RuntimeException(e); }
+    }
+
+    /**
+     * Ends the last line, no more mappings could be added after that.
+     */
+    void close() {
+        try {
+            out.append(';');
+        } catch (IOException e) { throw new RuntimeException(e); }
+    }
+
+    private boolean tryCopy(EncodedMappings encoded, int lineOffset) {
+        EncodedMappings.Summary summary = encoded.getSummary();
+        // Nothing to copy.
+        if (summary.lastLine < 0) return true;
+        // The first line should be a new line.
+        if (lineOffset < line || (lineOffset == line && lineHasSegments)) return false;
+
+        int sourceShift = sourceFileNames.getShift(encoded.getSourceFileNames());
+        int nameShift = sourceSymbolNames.getShift(encoded.getSourceSymbolNames());
+        sourceFileNames.addNames(encoded.getSourceFileNames(), sourceShift);
+        sourceSymbolNames.addNames(encoded.getSourceSymbolNames(), nameShift);
+        copy(encoded, lineOffset, sourceShift, nameShift);
+        return true;
+    }
+
+    /**
+     * Copies the encoded mappings starting from the given line, the source file and symbol name indexes are shifted
+     * by the given values. The names aren't added, the caller should manage them.
+     */
+    void copy(EncodedMappings encoded, int lineOffset, int sourceShift, int nameShift) {
+        EncodedMappings.Summary summary = encoded.getSummary();
+        // Nothing to copy.
+        if (summary.lastLine < 0) return;
+        // The first line should be a new line.
+        if (lineOffset < line || (lineOffset == line && lineHasSegments))
+            throw new RuntimeException("mappings should be added in a proper order!");
+
+        CharSequence mappings = encoded.getMappings();
+        try {
+            moveToLine(lineOffset);
+            int position = 0;
+            if (summary.firstSourceStart >= 0) {
+                out.append(mappings, position, summary.firstSourceStart);
+                int[] values = summary.firstSourceValues;
+                Base64VLQ.encode(out, values[0]);
+                Base64VLQ.encode(out, values[1] + sourceShift - previousSourceFileNameId);
+                Base64VLQ.encode(out, values[2] - previousSourceLine);
+                Base64VLQ.encode(out, values[3] - previousSourceColumn);
+                if (summary.firstSourceValueCount == 5)
+                    Base64VLQ.encode(out, values[4] + nameShift - previousSourceSymbolNameId);
+                position = summary.firstSourceEnd;
+            }
+            if (summary.firstNameStart >= 0 && summary.firstNameStart != summary.firstSourceStart) {
+                out.append(mappings, position, summary.firstNameStart);
+                int[] values = summary.firstNameValues;
+                for (int i = 0; i < 4; i++) Base64VLQ.encode(out, values[i]);
+                Base64VLQ.encode(out, values[4] + nameShift - previousSourceSymbolNameId);
+                position = summary.firstNameEnd;
+            }
+            out.append(mappings, position, summary.end);
+        } catch (IOException e) { throw new RuntimeException(e); }
+
+        line = lineOffset + summary.lastLine;
+        lineHasSegments = true;
+        previousColumn = summary.lastColumn;
+        if (summary.firstSourceStart >= 0) {
+            previousSourceFileNameId = summary.sourceFileNameIndex + sourceShift;
+            previousSourceLine = summary.sourceLine;
+            previousSourceColumn = summary.sourceColumn;
+        }
+        if (summary.firstNameStart >= 0) previousSourceSymbolNameId = summary.sourceSymbolNameIndex + nameShift;
+    }
+
+    private void moveToLine(int generatedLine) throws IOException {
+        while (line < generatedLine) {
+            out.append(';');
+            line++;
+            lineHasSegments = false;
+            previousColumn = 0;
+        }
+    }
+
+    /**
+     * Joined names with the index of every name. If the names are pooled the names of the same pool are looked up
+     * by id without hashing the strings.
+     */
+    private static class JoinedNames {
+        private static final int NOT_FOUND = -1;
+
+        final List<String> names;
+        // Null if the names are pooled.
+        private final Map<String, Integer> lookup;
+
+        JoinedNames(NamePool pool) {
+            this.names = pool == null ? new ArrayList<String>() : new PooledNames(pool);
+            this.lookup = pool == null ? new HashMap<String, Integer>() : null;
+        }
+
+        /**
+         * Index of the name with the given index in the list, `NOT_FOUND` if it hasn't been joined yet.
+         */
+        private int find(List<String> list, int index) {
+            if (lookup != null) {
+                Integer found = lookup.get(list.get(index));
+                return found == null ? NOT_FOUND : found;
+            }
+            PooledNames pooled = (PooledNames) names;
+            if (PooledNames.getPool(list) == pooled.getPool())
+                return pooled.indexOfId(((PooledNames) list).getId(index));
+            return pooled.indexOf(list.get(index));
+        }
+
+        int indexOfOrAdd(String name) {
+            if (lookup == null) return ((PooledNames) names).indexOfOrAdd(name);
+            Integer index = lookup.get(name);
+            if (index == null) {
+                index = names.size();
+                names.add(name);
+                lookup.put(name, index);
+            }
+            return index;
+        }
+
+        /**
+         * Shift of indexes if the names would be added to the joined names. If the names can't be added so that index
+         * of every name is shifted by the same value, they are added as a new range after the joined names.
+         */
+        int getShift(List<String> list) {
+            if (list.isEmpty()) return 0;
+            int firstIndex = find(list, 0);
+            int shift = firstIndex != NOT_FOUND ? firstIndex : names.size();
+            int nextNewIndex = names.size();
+            for (int i = 0; i < list.size(); i++) {
+                int index = find(list, i);
+                if (index == NOT_FOUND) index = nextNewIndex++;
+                if (index != shift + i) return names.size();
+            }
+            return shift;
+        }
+
+        /**
+         * Adds names that are not yet in the joined names at their shifted indexes, the shift should be calculated by
+         * `getShift`. The names of the new range are added even if they are already joined, the lookup keeps the
+         * first index.
+         */
+        void addNames(List<String> list, int shift) {
+            for (int i = 0; i < list.size(); i++) {
+                if (shift + i < names.size()) continue;
+                if (lookup == null && PooledNames.getPool(list) == PooledNames.getPool(names))
+                    ((PooledNames) names).addId(((PooledNames) list).getId(i));
+                else if (lookup == null) names.add(list.get(i));
+                else {
+                    String name = list.get(i);
+                    if (!lookup.containsKey(name)) lookup.put(name, names.size());
+                    names.add(name);
+                }
+            }
+        }
+    }
+}
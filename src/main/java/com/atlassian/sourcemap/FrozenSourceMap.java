@@ -0,0 +1,131 @@
+package com.atlassian.sourcemap;
+
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read only source map, it could be shared between threads and read concurrently without locking.
+ *
+ * Mappings are decoded completely when the map is created and never changed after that. The reverse index is created
+ * on the first use and published through volatile field (if multiple threads do it at once it's created multiple
+ * times, but every thread sees the complete object). The source map is generated on every call, it's streamed to the
+ * output without building the whole JSON in memory.
+ */
+class FrozenSourceMap implements SourceMap {
+    private final MappingTable mappings;
+    // Encoded mappings of the parsed source map, null if the source map has been modified before it's frozen.
+    private final EncodedMappings encoded;
+
+    private volatile ReverseIndex reverseIndex;
+
+    /**
+     * @param mappings mappings, they should not be changed anymore.
+     * @param encoded encoded form of the same mappings or null.
+     */
+    FrozenSourceMap(MappingTable mappings, EncodedMappings encoded) {
+        mappings.trimToSize();
+        this.mappings = mappings;
+        this.encoded = encoded;
+    }
+
+    @Override
+    public void addMapping(int generatedLine, int generatedColumn, int sourceLine, int sourceColumn, String sourceFileName) {
+        throw new RuntimeException("can't add mapping to frozen source map!");
+    }
+
+    @Override
+    public void addMapping(int generatedLine, int generatedColumn, int sourceLine, int sourceColumn, String sourceFileName, String sourceSymbolName) {
+        throw new RuntimeException("can't add mapping to frozen source map!");
+    }
+
+    @Override
+    public void addMapping(Mapping mapping) {
+        throw new RuntimeException("can't add mapping to frozen source map!");
+    }
+
+    @Override
+    public Mapping getMapping(int lineNumber, int column) {
+        return mappings.getMapping(lineNumber, column);
+    }
+
+    public List<Mapping> getGeneratedPositions(String sourceFileName, int sourceLine, int sourceColumn) {
+        return getReverseIndex().getGeneratedPositions(sourceFileName, sourceLine, sourceColumn);
+    }
+
+    public List<Mapping> getGeneratedPositions(String sourceFileName, int sourceLine) {
+        return getReverseIndex().getGeneratedPositions(sourceFileName, sourceLine);
+    }
+
+    @Override
+    public String generate() {
+        return getGenerator().generate();
+    }
+
+    public void generate(Writer out) {
+        generate(AsciiOutput.to(out));
+    }
+
+    public void generate(OutputStream out) {
+        generate(AsciiOutput.to(out));
+    }
+
+    public void generate(WritableByteChannel out) {
+        generate(AsciiOutput.to(out));
+    }
+
+    private void generate(AsciiOutput out) {
+        getGenerator().generate(out);
+    }
+
+    // Mappings of the parsed source map are written as they have been parsed.
+    private Generator getGenerator() {
+        return encoded != null ? new Generator(encoded) : new Generator(mappings);
+    }
+
+    @Override
+    public String generateForHumans() {
+        return InternalUtil.generateForHumans(this);
+    }
+
+    @Override
+    public List<String> getSourceFileNames() {
+        return new ArrayList<String>(mappings.getSourceFileNames());
+    }
+
+    @Override
+    public void eachMapping(EachMappingCallback callback) {
+        mappings.eachMapping(callback);
+    }
+
+    MappingTable getMappingTable() {
+        return mappings;
+    }
+
+    /**
+     * Rough estimate of the heap used by the source map, in bytes, including the reverse index that is built later.
+     */
+    long estimateSize() {
+        long size = mappings.estimateSize() + ReverseIndex.estimateSize(mappings);
+        // The encoded mappings share the names with the table.
+        if (encoded != null) size += encoded.estimateSize();
+        return size;
+    }
+
+    EncodedMappings getEncodedMappings() {
+        return encoded;
+    }
+
+    private ReverseIndex getReverseIndex() {
+        ReverseIndex index = reverseIndex;
+        if (index == null) {
+            index = new ReverseIndex(mappings);
+            // Sorting everything before it's published, so the lookups don't change it.
+            index.sortAll();
+            reverseIndex = index;
+        }
+        return index;
+    }
+}
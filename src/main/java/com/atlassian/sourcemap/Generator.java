@@ -1,11 +1,8 @@
 package com.atlassian.sourcemap;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Generates Source Map version 3.
@@ -13,39 +10,56 @@ import java.util.Map.Entry;
  * Code based on Google Closure Compiler https://code.google.com/p/closure-compiler
  */
 class Generator {
+    // Number of segments encoded by one task when the mappings are encoded in parallel.
+    static final int CHUNK_SIZE = 16 * 1024;
 
-    // A pre-order traversal ordered list of mappings stored in this map.
-    private List<Mapping> mappings = new ArrayList<Mapping>();
+    // Mappings stored in this map.
+    private final MappingTable mappings;
+    // Mappings that are already encoded, if not null they are written as they are.
+    private final EncodedMappings encodedMappings;
 
-    private LinkedHashMap<String, Integer> sourceFileNames = new LinkedHashMap<String, Integer>();
-    private int nextSourceFileNameIndex = 0;
-
-    private LinkedHashMap<String, Integer> sourceSymbolNames = new LinkedHashMap<String, Integer>();
-    private int nextSourceSymbolNameIndex = 0;
+    private final List<String> sourceFileNames;
+    private final List<String> sourceSymbolNames;
 
     private String sourceRootPath;
+    private ExecutorService executor;
+
+    public Generator() {
+        this(new MappingTable());
+    }
 
     /**
-     * Adds a mapping for the given node.  Mappings must be added in order.
+     * Generator encoding the given mappings, mappings are not copied.
      */
-    public void addMapping(Mapping mapping) {
-        if (mapping.getSourceFileName() == null) throw new RuntimeException("source file name required!");
-
-        if (!sourceFileNames.containsKey(mapping.getSourceFileName())) {
-            sourceFileNames.put(mapping.getSourceFileName(), nextSourceFileNameIndex);
-            nextSourceFileNameIndex += 1;
-        }
+    Generator(MappingTable mappings) {
+        this.mappings = mappings;
+        this.encodedMappings = null;
+        this.sourceFileNames = mappings.getSourceFileNames();
+        this.sourceSymbolNames = mappings.getSourceSymbolNames();
+    }
 
-        if ((mapping.getSourceSymbolName() != null) && (!sourceSymbolNames.containsKey(mapping.getSourceSymbolName()))) {
-            sourceSymbolNames.put(mapping.getSourceSymbolName(), nextSourceSymbolNameIndex);
-            nextSourceSymbolNameIndex += 1;
-        }
+    /**
+     * Generator writing already encoded mappings, no mappings could be added. The `sources` and `names` are written
+     * as they have been parsed if it's possible.
+     */
+    Generator(EncodedMappings encodedMappings) {
+        this.mappings = null;
+        this.encodedMappings = encodedMappings;
+        this.sourceFileNames = encodedMappings.getSourceFileNames();
+        this.sourceSymbolNames = encodedMappings.getSourceSymbolNames();
+    }
 
-        mappings.add(mapping);
+    /**
+     * Adds a mapping for the given node.  Mappings must be added in order.
+     */
+    public void addMapping(Mapping mapping) {
+        addMapping(mapping.getGeneratedLine(), mapping.getGeneratedColumn(), mapping.getSourceLine(),
+            mapping.getSourceColumn(), mapping.getSourceFileName(), mapping.getSourceSymbolName());
     }
 
     public void addMapping(int generatedLine, int generatedColumn, int sourceLine, int sourceColumn, String sourceFileName, String sourceSymbolName) {
-        addMapping(new MappingImpl(generatedLine, generatedColumn, sourceLine, sourceColumn, sourceFileName, sourceSymbolName));
+        if (mappings == null) throw new RuntimeException("can't add mapping to encoded mappings!");
+        mappings.addMapping(generatedLine, generatedColumn, sourceLine, sourceColumn, sourceFileName, sourceSymbolName);
     }
 
     public void addMapping(int generatedLine, int generatedColumn, int sourceLine, int sourceColumn, String sourceFileName) {
@@ -89,26 +103,41 @@ class Generator {
             // appendField(out, "lineCount", String.valueOf(maxLine));
 
             //optional source root
-            if (this.sourceRootPath != null && !this.sourceRootPath.isEmpty())
-                appendField(out, "sourceRoot", escapeString(this.sourceRootPath));
+            if (this.sourceRootPath != null && !this.sourceRootPath.isEmpty()) {
+                appendFieldStart(out, "sourceRoot");
+                InternalUtil.appendEscapedString(out, this.sourceRootPath);
+            }
 
             // Files names
             appendFieldStart(out, "sources");
-            out.append("[");
-            addNameMap(out, sourceFileNames);
-            out.append("]");
+            if (encodedMappings != null && encodedMappings.getRawSourceFileNames() != null)
+                out.append(encodedMappings.getRawSourceFileNames());
+            else {
+                out.append("[");
+                addNameMap(out, sourceFileNames);
+                out.append("]");
+            }
             appendFieldEnd(out);
 
             // Files names
             appendFieldStart(out, "names");
-            out.append("[");
-            addNameMap(out, sourceSymbolNames);
-            out.append("]");
+            if (encodedMappings != null && encodedMappings.getRawSourceSymbolNames() != null)
+                out.append(encodedMappings.getRawSourceSymbolNames());
+            else {
+                out.append("[");
+                addNameMap(out, sourceSymbolNames);
+                out.append("]");
+            }
             appendFieldEnd(out);
 
             // Add the mappings themselves.
             appendFieldStart(out, "mappings");
-            (new LineMapper(out)).appendLineMappings();
+            if (encodedMappings != null) {
+                out.append('\"');
+                out.append(encodedMappings.getMappings());
+                out.append('\"');
+            }
+            else appendMappings(out);
 
             appendFieldEnd(out);
 
@@ -122,6 +151,16 @@ class Generator {
         return out.toString();
     }
 
+    /**
+     * Writes source map through the fixed-size buffer, the memory used doesn't depend on the size of the output.
+     */
+    void generate(AsciiOutput out) {
+        generate((Appendable) out);
+        try {
+            out.flush();
+        } catch (IOException e) { throw new RuntimeException(e); }
+    }
+
     /**
      * A prefix to be added to the beginning of each sourceName passed to
      * {@link #addMapping}. Debuggers expect (prefix + sourceName) to be a URL
@@ -133,22 +172,98 @@ class Generator {
         this.sourceRootPath = path;
     }
 
+    /**
+     * Executor to encode the mappings of big source maps in parallel, the output is the same as without it.
+     */
+    void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
 
-    private void addNameMap(Appendable out, Map<String, Integer> map) throws IOException {
-        int i = 0;
-        for (Entry<String, Integer> entry : map.entrySet()) {
-            String key = entry.getKey();
-            if (i != 0) out.append(",");
-            out.append(escapeString(key));
-            i++;
-        }
+    private void appendMappings(Appendable out) throws IOException {
+        out.append('\"');
+        int lastLine = mappings.getLineCount() - 1;
+        if (executor == null || mappings.size() < 2 * CHUNK_SIZE)
+            new LineMapper(out).appendLineMappings(0, 0, lastLine, mappings.size());
+        else appendChunks(out);
+        out.append(';');
+        out.append('\"');
     }
 
     /**
-     * Escapes the given string for JSON.
+     * Splits the segments into chunks and encodes them in parallel into separate buffers. The values are relative to
+     * the previous segment, so the state at the start of every chunk (the last column of the line, the last source
+     * position and the last symbol name) is found before the encoding and the chunks are encoded exactly as they
+     * would be in one pass.
      */
-    private static String escapeString(String value) {
-        return InternalUtil.escapeString(value);
+    private void appendChunks(Appendable out) throws IOException {
+        // Chunk `i` starts at the segment `starts[i]` of the line `startLines[i]`.
+        int chunkCount = (mappings.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        final int[] startLines = new int[chunkCount + 1];
+        final int[] starts = new int[chunkCount + 1];
+        int chunk = 1;
+        for (int line = 0; line < mappings.getLineCount() && chunk < chunkCount; line++) {
+            while (chunk < chunkCount && chunk * CHUNK_SIZE < mappings.getLineEnd(line)) {
+                startLines[chunk] = line;
+                starts[chunk] = chunk * CHUNK_SIZE;
+                chunk++;
+            }
+        }
+        startLines[chunkCount] = mappings.getLineCount() - 1;
+        starts[chunkCount] = mappings.size();
+
+        // The last segments with source position and with symbol name before every chunk.
+        final int[] previousMapped = new int[chunkCount];
+        final int[] previousNamed = new int[chunkCount];
+        previousMapped[0] = MappingTable.UNMAPPED;
+        previousNamed[0] = MappingTable.UNMAPPED;
+        for (int i = 1; i < chunkCount; i++) {
+            previousMapped[i] = previousMapped[i - 1];
+            previousNamed[i] = previousNamed[i - 1];
+            for (int j = starts[i] - 1; j >= starts[i - 1]; j--) {
+                if (mappings.getSourceFileNameIndex(j) == MappingTable.UNMAPPED) continue;
+                if (previousMapped[i] < j) previousMapped[i] = j;
+                if (mappings.getSourceSymbolNameIndex(j) != MappingTable.UNMAPPED) {
+                    previousNamed[i] = j;
+                    break;
+                }
+            }
+        }
+
+        // The calling thread encodes chunks too, so it doesn't deadlock on the busy executor.
+        final StringBuilder[] buffers = new StringBuilder[chunkCount];
+        InternalUtil.runInParallel(executor, chunkCount, new InternalUtil.IndexedTask() {
+            public void run(int index) {
+                StringBuilder buffer = new StringBuilder();
+                LineMapper mapper = new LineMapper(buffer);
+                mapper.setState(starts[index], startLines[index], previousMapped[index], previousNamed[index]);
+                try {
+                    mapper.appendLineMappings(startLines[index], starts[index], startLines[index + 1],
+                        starts[index + 1]);
+                } catch (IOException e) { throw new RuntimeException(e); }
+                buffers[index] = buffer;
+            }
+        });
+        for (StringBuilder buffer : buffers) out.append(buffer);
+    }
+
+    private void addNameMap(Appendable out, List<String> names) throws IOException {
+        if (names instanceof PooledNames) {
+            // The pooled names are escaped only once.
+            PooledNames pooled = (PooledNames) names;
+            for (int i = 0; i < pooled.size(); i++) {
+                if (i != 0) out.append(",");
+                int id = pooled.getId(i);
+                out.append(id == PooledNames.NULL_ID ? "null" : pooled.getPool().getEscapedName(id));
+            }
+            return;
+        }
+        int i = 0;
+        for (String name : names) {
+            if (i != 0) out.append(",");
+            if (name == null) out.append("null");
+            else InternalUtil.appendEscapedString(out, name);
+            i++;
+        }
     }
 
     private static void appendFirstField(Appendable out, String name, CharSequence value) throws IOException {
@@ -174,23 +289,10 @@ class Generator {
 
     private static void appendFieldEnd(Appendable out) throws IOException {}
 
-    private int getSourceFileNameIndex(String sourceName) {
-        Integer index = sourceFileNames.get(sourceName);
-        if (index == null) throw new RuntimeException("source file name " + sourceName + " is unknown!");
-        return index;
-    }
-
-    private int getSourceSymbolNameIndex(String symbolName) {
-        Integer index = sourceFileNames.get(symbolName);
-        if (index == null) throw new RuntimeException("source symbol name " + symbolName + " is unknown!");
-        return index;
-    }
-
     private class LineMapper {
         // The destination.
         private final Appendable out;
 
-        private int previousLine = -1;
         private int previousColumn = 0;
 
         // Previous values used for storing relative ids.
@@ -203,78 +305,72 @@ class Generator {
             this.out = out;
         }
 
-        // Append the line mapping entries.
-        void appendLineMappings() throws IOException {
-            openLine(true);
-            for (Mapping mapping : mappings)  {
-                int generatedLine = mapping.getGeneratedLine();
-                int generatedColumn = mapping.getGeneratedColumn();
-
-                if (generatedLine > 0 && previousLine != generatedLine) {
-                    int start = previousLine == -1 ? 0 : previousLine;
-                    for (int i = start; i < generatedLine; i++) {
-                        closeLine(false);
-                        openLine(false);
-                    }
-                }
-
-                if (previousLine != generatedLine) previousColumn = 0;
-                else out.append(',');
-
-                writeEntry(mapping, generatedColumn);
-                previousLine = generatedLine;
-                previousColumn = generatedColumn;
-            }
-            closeLine(true);
-        }
-
         /**
-         * Begin the entry for a new line.
+         * Sets the state as if the segments before the given one have been written.
+         * @param previousMapped the last segment with source position before it, `UNMAPPED` if there's none.
+         * @param previousNamed the last segment with symbol name before it, `UNMAPPED` if there's none.
          */
-        private void openLine(boolean firstEntry) throws IOException {
-            if (firstEntry) out.append('\"');
+        void setState(int index, int line, int previousMapped, int previousNamed) {
+            previousColumn = index > mappings.getLineStart(line) ? mappings.getGeneratedColumn(index - 1) : 0;
+            if (previousMapped != MappingTable.UNMAPPED) {
+                previousSourceFileNameId = mappings.getSourceFileNameIndex(previousMapped);
+                previousSourceLine = mappings.getSourceLine(previousMapped);
+                previousSourceColumn = mappings.getSourceColumn(previousMapped);
+            }
+            if (previousNamed != MappingTable.UNMAPPED)
+                previousSourceSymbolNameId = mappings.getSourceSymbolNameIndex(previousNamed);
         }
 
         /**
-         * End the entry for a line.
+         * Appends the line mapping entries from the segment `start` of the line `startLine` till the segment `end`
+         * of the line `endLine`, the lines are separated by `;`.
          */
-        private void closeLine(boolean finalEntry) throws IOException {
-            out.append(';');
-            if (finalEntry) out.append('\"');
+        void appendLineMappings(int startLine, int start, int endLine, int end) throws IOException {
+            for (int line = startLine; line <= endLine; line++) {
+                if (line > startLine) {
+                    out.append(';');
+                    previousColumn = 0;
+                }
+                int lineStart = mappings.getLineStart(line);
+                for (int i = Math.max(start, lineStart); i < Math.min(end, mappings.getLineEnd(line)); i++) {
+                    if (i > lineStart) out.append(',');
+                    writeEntry(i);
+                }
+            }
         }
 
         /**
-         * Writes an entry for the given column (of the generated text) and
-         * associated mapping.
+         * Writes an entry for the given segment.
          * The values are stored as relative to the last seen values for each
          * field and encoded as Base64VLQs.
          */
-        void writeEntry(Mapping m, int column) throws IOException {
+        void writeEntry(int index) throws IOException {
             // The relative generated column number
+            int column = mappings.getGeneratedColumn(index);
             Base64VLQ.encode(out, column - previousColumn);
             previousColumn = column;
-            if (m != null) {
+            int sourceId = mappings.getSourceFileNameIndex(index);
+            if (sourceId != MappingTable.UNMAPPED) {
                 // The relative source file id
-                int sourceId = getSourceFileNameIndex(m.getSourceFileName());
                 Base64VLQ.encode(out, sourceId - previousSourceFileNameId);
                 previousSourceFileNameId = sourceId;
 
                 // The relative source file line and column
-                int srcline = m.getSourceLine();
-                int srcColumn = m.getSourceColumn();
+                int srcline = mappings.getSourceLine(index);
+                int srcColumn = mappings.getSourceColumn(index);
                 Base64VLQ.encode(out, srcline - previousSourceLine);
                 previousSourceLine = srcline;
 
                 Base64VLQ.encode(out, srcColumn - previousSourceColumn);
                 previousSourceColumn = srcColumn;
 
-                if (m.getSourceSymbolName() != null) {
+                int nameId = mappings.getSourceSymbolNameIndex(index);
+                if (nameId != MappingTable.UNMAPPED) {
                     // The relative id for the associated symbol name
-                    int nameId = getSourceSymbolNameIndex(m.getSourceSymbolName());
                     Base64VLQ.encode(out, (nameId - previousSourceSymbolNameId));
                     previousSourceSymbolNameId = nameId;
                 }
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,119 @@
+package com.atlassian.sourcemap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Mappings of 1 to 1 source map, every line is mapped to the same line of the source file. Only the source file name
+ * and the number of lines are stored, the mappings are calculated when they are accessed and the encoded mappings
+ * `AAAA;AACA;AACA;...` are generated char by char.
+ */
+class IdentityMappings implements MappingReader {
+    private final String sourceFileName;
+    private final int lineCount;
+    private final List<String> sourceFileNames = new ArrayList<String>();
+    private final List<String> sourceSymbolNames = new ArrayList<String>();
+
+    IdentityMappings(String sourceFileName, int lineCount) {
+        if (sourceFileName == null) throw new RuntimeException("source file name required!");
+        if (lineCount < 1) throw new RuntimeException("invalid lines count " + lineCount + "!");
+        this.sourceFileName = sourceFileName;
+        this.lineCount = lineCount;
+        sourceFileNames.add(sourceFileName);
+    }
+
+    String getSourceFileName() {
+        return sourceFileName;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    public Mapping getMapping(int lineNumber, int column) {
+        if (lineNumber < 0 || lineNumber >= lineCount) return null;
+        if (column < 0) throw new RuntimeException("invalid column number!");
+        return new MappingImpl(lineNumber, 0, lineNumber, 0, sourceFileName, null);
+    }
+
+    public Mapping getLastSegment(int lineNumber, int column) {
+        if (lineNumber < 0) return null;
+        int line = Math.min(lineNumber, lineCount - 1);
+        return new MappingImpl(line, 0, line, 0, sourceFileName, null);
+    }
+
+    public void eachMapping(SourceMap.EachMappingCallback cb) {
+        for (int line = 0; line < lineCount; line++) cb.apply(new MappingImpl(line, 0, line, 0, sourceFileName, null));
+    }
+
+    public List<String> getSourceFileNames() {
+        return sourceFileNames;
+    }
+
+    public List<String> getSourceSymbolNames() {
+        return sourceSymbolNames;
+    }
+
+    public MappingTable toMappingTable() {
+        int[] lineStarts = new int[lineCount + 1];
+        for (int i = 0; i <= lineCount; i++) lineStarts[i] = i;
+        int[] unmapped = new int[lineCount];
+        Arrays.fill(unmapped, MappingTable.UNMAPPED);
+        int[] sourceLines = Arrays.copyOf(lineStarts, lineCount);
+        return new MappingTable(sourceFileNames, sourceSymbolNames, lineStarts, lineCount, new int[lineCount],
+            new int[lineCount], sourceLines, new int[lineCount], unmapped);
+    }
+
+    /**
+     * The encoded mappings with the summary known in advance, so they are copied without scanning.
+     */
+    EncodedMappings toEncodedMappings() {
+        EncodedMappings.Summary summary = new EncodedMappings.Summary();
+        summary.end = Encoded.FIRST_LINE.length() + Encoded.NEXT_LINE.length() * (lineCount - 1);
+        summary.lastLine = lineCount - 1;
+        summary.firstSourceStart = 0;
+        summary.firstSourceEnd = Encoded.FIRST_LINE.length();
+        summary.firstSourceValueCount = 4;
+        summary.sourceLine = lineCount - 1;
+        return new EncodedMappings(sourceFileNames, sourceSymbolNames, new Encoded(lineCount), summary);
+    }
+
+    /**
+     * The `AAAA;AACA;AACA;...;` mappings for the given number of lines.
+     */
+    private static class Encoded implements CharSequence {
+        static final String FIRST_LINE = "AAAA";
+        static final String NEXT_LINE = ";AACA";
+
+        private final int length;
+
+        Encoded(int lineCount) {
+            // With the trailing line separator.
+            this.length = FIRST_LINE.length() + NEXT_LINE.length() * (lineCount - 1) + 1;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public char charAt(int index) {
+            if (index < 0 || index >= length) throw new IndexOutOfBoundsException("index " + index);
+            if (index == length - 1) return ';';
+            if (index < FIRST_LINE.length()) return FIRST_LINE.charAt(index);
+            return NEXT_LINE.charAt((index - FIRST_LINE.length()) % NEXT_LINE.length());
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length || start > end) throw new IndexOutOfBoundsException(start + ", " + end);
+            StringBuilder result = new StringBuilder(end - start);
+            for (int i = start; i < end; i++) result.append(charAt(i));
+            return result.toString();
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, length).toString();
+        }
+    }
+}
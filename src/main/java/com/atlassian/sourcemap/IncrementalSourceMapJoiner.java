@@ -0,0 +1,131 @@
+package com.atlassian.sourcemap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Joins source maps like `SourceMapJoiner`, but keeps the added source maps so the batch could be joined again
+ * after some of them have been replaced, inserted or removed.
+ *
+ * Every source map is kept in the encoded form together with the state at its start and end. When the batch is
+ * joined the encoded mappings are copied as they are, only the first segment with source and the first segment with
+ * symbol name of every source map are re-encoded relative to the previous one. So after one source map has been
+ * changed only that source map is encoded again. The names of source maps are not merged, every source map refers to
+ * its own range of `sources` and `names`, so the same name could be listed more than once.
+ */
+public class IncrementalSourceMapJoiner
+{
+    private static class Component
+    {
+        // Null if there's no source map.
+        final EncodedMappings encoded;
+        final int linesCount;
+        final int offset;
+
+        Component(EncodedMappings encoded, int linesCount, int offset)
+        {
+            this.encoded = encoded;
+            this.linesCount = linesCount;
+            this.offset = offset;
+        }
+    }
+
+    private final List<Component> components = new ArrayList<Component>();
+
+    /**
+     * Adds source map at the end of the batch, the source map is encoded when it's added and its later changes are
+     * not seen by the joiner.
+     * @param sourceMap source map to add, could be null if the content has no source map.
+     * @param length number of lines of added source map.
+     * @param offset offset of added source map (note - the offset is inside of its content, not outside).
+     */
+    public void addSourceMap(SourceMap sourceMap, int length, int offset)
+    {
+        components.add(createComponent(sourceMap, length, offset));
+    }
+
+    /**
+     * Inserts source map before the source map with the given index.
+     */
+    public void insertSourceMap(int index, SourceMap sourceMap, int length, int offset)
+    {
+        components.add(index, createComponent(sourceMap, length, offset));
+    }
+
+    /**
+     * Replaces the source map with the given index.
+     */
+    public void setSourceMap(int index, SourceMap sourceMap, int length, int offset)
+    {
+        components.set(index, createComponent(sourceMap, length, offset));
+    }
+
+    public void removeSourceMap(int index)
+    {
+        components.remove(index);
+    }
+
+    /**
+     * Number of added source maps.
+     */
+    public int size()
+    {
+        return components.size();
+    }
+
+    /**
+     * Joins the source maps, the mappings are copied without decoding.
+     * @return joined source map.
+     */
+    public SourceMap join()
+    {
+        int length = 0;
+        for (Component component : components)
+        {
+            length += component.linesCount;
+            if (component.encoded != null) length += component.encoded.getMappings().length();
+        }
+
+        StringBuilder joinedMappings = new StringBuilder(length + 1);
+        EncodedMappingsBuilder builder = new EncodedMappingsBuilder(joinedMappings);
+        List<String> sourceFileNames = new ArrayList<String>();
+        List<String> sourceSymbolNames = new ArrayList<String>();
+        int lineOffset = 0;
+        for (Component component : components)
+        {
+            lineOffset += component.offset;
+            if (component.encoded != null)
+            {
+                builder.copy(component.encoded, lineOffset, sourceFileNames.size(), sourceSymbolNames.size());
+                sourceFileNames.addAll(component.encoded.getSourceFileNames());
+                sourceSymbolNames.addAll(component.encoded.getSourceSymbolNames());
+            }
+
+            // Lines count already included before and after offsets.
+            lineOffset += component.linesCount - component.offset;
+        }
+        builder.close();
+        return new SourceMapImpl(new EncodedMappings(sourceFileNames, sourceSymbolNames, joinedMappings.toString()));
+    }
+
+    private static Component createComponent(SourceMap sourceMap, int linesCount, int offset)
+    {
+        if (sourceMap == null) return new Component(null, linesCount, offset);
+
+        EncodedMappings encoded = null;
+        if (sourceMap instanceof SourceMapImpl) encoded = ((SourceMapImpl) sourceMap).getEncodedMappings();
+        else if (sourceMap instanceof FrozenSourceMap) encoded = ((FrozenSourceMap) sourceMap).getEncodedMappings();
+        if (encoded != null)
+        {
+            // The names are copied because the parsed source map shares them with its decoded mappings.
+            return new Component(new EncodedMappings(PooledNames.copyOf(encoded.getSourceFileNames()),
+                PooledNames.copyOf(encoded.getSourceSymbolNames()), encoded.getMappings()), linesCount, offset);
+        }
+
+        StringBuilder mappings = new StringBuilder();
+        EncodedMappingsBuilder builder = new EncodedMappingsBuilder(mappings);
+        builder.append(sourceMap, 0);
+        return new Component(new EncodedMappings(builder.getSourceFileNames(), builder.getSourceSymbolNames(),
+            mappings.toString()), linesCount, offset);
+    }
+}
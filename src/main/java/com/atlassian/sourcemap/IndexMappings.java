@@ -0,0 +1,158 @@
+package com.atlassian.sourcemap;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Mappings of index map, the map consists of sections with their own source maps placed at some offset.
+ *
+ * Section source maps are kept as JSON and parsed (with lazily decoded mappings) on the first access. Lookups
+ * binary search the section by its offset and delegate to its source map. Lookups are thread safe.
+ */
+class IndexMappings implements MappingReader {
+    private final int[] offsetLines;
+    private final int[] offsetColumns;
+    // JSON content of the section source maps, it's released when the section is parsed.
+    private final String[] contents;
+    private final MappingReader[] sections;
+
+    private List<String> sourceFileNames = null;
+    private List<String> sourceSymbolNames = null;
+
+    /**
+     * @param offsetLines line offsets of the sections, in order.
+     * @param offsetColumns column offsets of the sections.
+     * @param contents JSON content of the section source maps.
+     */
+    IndexMappings(int[] offsetLines, int[] offsetColumns, String[] contents) {
+        for (int i = 1; i < offsetLines.length; i++) {
+            if (offsetLines[i] < offsetLines[i - 1]
+                || (offsetLines[i] == offsetLines[i - 1] && offsetColumns[i] < offsetColumns[i - 1]))
+                throw new RuntimeException("sections should be in a proper order!");
+        }
+        this.offsetLines = offsetLines;
+        this.offsetColumns = offsetColumns;
+        this.contents = contents;
+        this.sections = new MappingReader[contents.length];
+    }
+
+    public Mapping getMapping(int lineNumber, int column) {
+        if (column < 0) throw new RuntimeException("invalid column number!");
+        int index = findSection(lineNumber, column);
+        if (index < 0) return null;
+        // After the end of the last section.
+        if (index == sections.length - 1 && lineNumber - offsetLines[index] >= getSection(index).getLineCount())
+            return null;
+        return InternalUtil.mappedOrNull(getLastSegment(index, lineNumber, column));
+    }
+
+    /**
+     * The last segment at or before the position, if the section containing the position has no segments before it
+     * the last segment of the nearest preceding non-empty section is returned, as it would be in the flattened map.
+     */
+    public Mapping getLastSegment(int lineNumber, int column) {
+        int index = findSection(lineNumber, column);
+        return index < 0 ? null : getLastSegment(index, lineNumber, column);
+    }
+
+    private Mapping getLastSegment(int index, int lineNumber, int column) {
+        int sectionLine = lineNumber - offsetLines[index];
+        int sectionColumn = sectionLine == 0 ? column - offsetColumns[index] : column;
+        Mapping segment = getSection(index).getLastSegment(sectionLine, sectionColumn);
+        while (segment == null && index > 0) {
+            index--;
+            segment = getSection(index).getLastSegment(Integer.MAX_VALUE, Integer.MAX_VALUE);
+        }
+        return segment == null ? null : withOffset(segment, index);
+    }
+
+    public int getLineCount() {
+        int last = sections.length - 1;
+        return last < 0 ? 0 : offsetLines[last] + getSection(last).getLineCount();
+    }
+
+    /**
+     * Index of the last section starting before or at the position, -1 if there's no such section.
+     */
+    private int findSection(int lineNumber, int column) {
+        int start = 0;
+        int end = sections.length - 1;
+        while (start <= end) {
+            int mid = (start + end) >>> 1;
+            if (offsetLines[mid] < lineNumber || (offsetLines[mid] == lineNumber && offsetColumns[mid] <= column))
+                start = mid + 1;
+            else end = mid - 1;
+        }
+        return start - 1;
+    }
+
+    public void eachMapping(final SourceMap.EachMappingCallback cb) {
+        for (int i = 0; i < sections.length; i++) {
+            final int index = i;
+            getSection(i).eachMapping(new SourceMap.EachMappingCallback() {
+                public void apply(Mapping mapping) {
+                    cb.apply(withOffset(mapping, index));
+                }
+            });
+        }
+    }
+
+    /**
+     * Source file names of all the sections, without duplicates.
+     */
+    public synchronized List<String> getSourceFileNames() {
+        if (sourceFileNames == null) collectNames();
+        return sourceFileNames;
+    }
+
+    /**
+     * Source symbol names of all the sections, without duplicates.
+     */
+    public synchronized List<String> getSourceSymbolNames() {
+        if (sourceSymbolNames == null) collectNames();
+        return sourceSymbolNames;
+    }
+
+    public MappingTable toMappingTable() {
+        final MappingTable table = new MappingTable();
+        eachMapping(new SourceMap.EachMappingCallback() {
+            public void apply(Mapping mapping) {
+                table.add(mapping);
+            }
+        });
+        table.trimToSize();
+        return table;
+    }
+
+    /**
+     * Section parsed on the first access, the parsed sections and released contents are guarded by the lock.
+     */
+    private synchronized MappingReader getSection(int index) {
+        if (sections[index] == null) {
+            sections[index] = new Consumer(contents[index], true).getLazyMappings();
+            contents[index] = null;
+        }
+        return sections[index];
+    }
+
+    private Mapping withOffset(Mapping mapping, int index) {
+        int generatedLine = mapping.getGeneratedLine();
+        int generatedColumn = mapping.getGeneratedColumn();
+        if (generatedLine == 0) generatedColumn += offsetColumns[index];
+        return new MappingImpl(generatedLine + offsetLines[index], generatedColumn, mapping.getSourceLine(),
+            mapping.getSourceColumn(), mapping.getSourceFileName(), mapping.getSourceSymbolName());
+    }
+
+    private void collectNames() {
+        Set<String> files = new LinkedHashSet<String>();
+        Set<String> symbols = new LinkedHashSet<String>();
+        for (int i = 0; i < sections.length; i++) {
+            files.addAll(getSection(i).getSourceFileNames());
+            symbols.addAll(getSection(i).getSourceSymbolNames());
+        }
+        sourceFileNames = new ArrayList<String>(files);
+        sourceSymbolNames = new ArrayList<String>(symbols);
+    }
+}
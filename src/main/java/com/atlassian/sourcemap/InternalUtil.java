@@ -1,7 +1,19 @@
 package com.atlassian.sourcemap;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.CharsetEncoder;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Code based on Google Closure Compiler https://code.google.com/p/closure-compiler
@@ -20,6 +32,41 @@ class InternalUtil
         return escapeString(s, '"',  "\\\"", "\'", "\\\\", null);
     }
 
+    /**
+     * Escapes the given string to a double quoted (") JavaScript/JSON string and appends it, the output consists of
+     * ASCII chars only.
+     */
+    static void appendEscapedString(Appendable out, String s) throws IOException {
+        appendEscapedString(out, s, '"',  "\\\"", "\'", "\\\\", null);
+    }
+
+    /**
+     * Source map in format easily read by humans, for debug purposes.
+     */
+    static String generateForHumans(SourceMap sourceMap) {
+        final StringBuilder buff = new StringBuilder();
+        buff.append("{\n");
+        buff.append("  sources  : [\n    " + join(sourceMap.getSourceFileNames(), "\n    ") + "\n  ]\n");
+        buff.append("  mappings : [\n    ");
+        final int[] previousLine = new int[]{-1};
+        sourceMap.eachMapping(new SourceMap.EachMappingCallback() {
+            public void apply(Mapping mapping) {
+                // Skipping unmapped segments.
+                if (mapping.getSourceFileName() == null) return;
+
+                if ((mapping.getGeneratedLine() != previousLine[0]) && (previousLine[0] != -1)) buff.append("\n    ");
+                else if (previousLine[0] != -1) buff.append(", ");
+                previousLine[0] = mapping.getGeneratedLine();
+
+                String shortName = mapping.getSourceFileName().replaceAll(".*/", "");
+                buff.append("(" + mapping.getGeneratedLine() + ":" + mapping.getGeneratedColumn() + " -> "
+                    + shortName + ":" + mapping.getSourceLine() + ":" + mapping.getSourceColumn() + ")");
+            }
+        });
+        buff.append("\n  ]\n}");
+        return buff.toString();
+    }
+
     /** Helper to escape JavaScript string as well as regular expression */
     static String escapeString(String s, char quote,
                                String doublequoteEscape,
@@ -27,6 +74,18 @@ class InternalUtil
                                String backslashEscape,
                                CharsetEncoder outputCharsetEncoder) {
         StringBuilder sb = new StringBuilder(s.length() + 2);
+        try {
+            appendEscapedString(sb, s, quote, doublequoteEscape, singlequoteEscape, backslashEscape,
+                outputCharsetEncoder);
+        } catch (IOException e) { throw new RuntimeException(e); }
+        return sb.toString();
+    }
+
+    private static void appendEscapedString(Appendable sb, String s, char quote,
+                                            String doublequoteEscape,
+                                            String singlequoteEscape,
+                                            String backslashEscape,
+                                            CharsetEncoder outputCharsetEncoder) throws IOException {
         sb.append(quote);
         for (int i = 0; i < s.length(); i++) {
             char c = s.charAt(i);
@@ -89,7 +148,6 @@ class InternalUtil
             }
         }
         sb.append(quote);
-        return sb.toString();
     }
 
     static String join(Iterable<String> list, String delimiter)
@@ -109,10 +167,8 @@ class InternalUtil
      */
     @SuppressWarnings("cast")
     private static void appendCharAsHex(
-        StringBuilder sb, char c) {
-        try {
-            appendHexJavaScriptRepresentation(sb, (int)c);
-        } catch (IOException ex) { throw new RuntimeException(ex); }
+        Appendable sb, char c) throws IOException {
+        appendHexJavaScriptRepresentation(sb, (int)c);
     }
 
     /**
@@ -138,4 +194,183 @@ class InternalUtil
             .append(HEX_CHARS[(codePoint >>> 4) & 0xf])
             .append(HEX_CHARS[codePoint & 0xf]);
     }
+
+    /**
+     * Sort key of the position, ordered by line and then by column. The column is added rather than or-ed, so the
+     * negative column isn't sign-extended over the line and sorts before the other columns of the same line.
+     */
+    static long positionKey(int line, int column) {
+        return ((long) line << 32) + column;
+    }
+
+    /**
+     * Stable merge sort of the range of indexes by their keys, the keys are indexed by the index values.
+     */
+    static void sortByKeys(int[] indexes, int from, int to, long[] keys) {
+        int count = to - from;
+        int[] source = Arrays.copyOfRange(indexes, from, to);
+        int[] target = new int[count];
+        for (int width = 1; width < count; width *= 2) {
+            for (int start = 0; start < count; start += 2 * width) {
+                int middle = Math.min(start + width, count);
+                int end = Math.min(start + 2 * width, count);
+                int left = start;
+                int right = middle;
+                for (int i = start; i < end; i++) {
+                    if (left < middle && (right >= end || keys[source[left]] <= keys[source[right]]))
+                        target[i] = source[left++];
+                    else target[i] = source[right++];
+                }
+            }
+            int[] swap = source;
+            source = target;
+            target = swap;
+        }
+        System.arraycopy(source, 0, indexes, from, count);
+    }
+
+    /**
+     * Stable order of the segments from start till end by their generated columns, the order is relative to start.
+     */
+    static int[] columnOrder(int[] generatedColumns, int start, int end) {
+        int[] order = new int[end - start];
+        long[] keys = new long[order.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+            keys[i] = generatedColumns[start + i];
+        }
+        sortByKeys(order, 0, order.length, keys);
+        return order;
+    }
+
+    /**
+     * Reorders the values from start by the relative order given by `columnOrder`.
+     */
+    static void reorder(int[] values, int[] order, int start) {
+        int[] sorted = new int[order.length];
+        for (int i = 0; i < order.length; i++) sorted[i] = values[start + order[i]];
+        System.arraycopy(sorted, 0, values, start, sorted.length);
+    }
+
+    /**
+     * Mapping of the segment, null if the segment is unmapped or there's no segment.
+     */
+    static Mapping mappedOrNull(Mapping segment) {
+        return segment == null || segment.getSourceFileName() == null ? null : segment;
+    }
+
+    /**
+     * Task run for every index by `runInParallel`.
+     */
+    interface IndexedTask {
+        void run(int index);
+    }
+
+    /**
+     * Runs the task for every index from 0 to count, in parallel if there's more than one. The calling thread takes
+     * the indexes too and waits only for the indexes already taken by the executor threads, so it never waits for a
+     * task queued behind it and doesn't deadlock if the executor is busy or it's called from the executor thread. The
+     * first exception thrown by the task is rethrown as it is if possible.
+     */
+    static void runInParallel(ExecutorService executor, final int count, final IndexedTask task) {
+        if (count < 2) {
+            for (int i = 0; i < count; i++) task.run(i);
+            return;
+        }
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(count);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Runnable worker = new Runnable() {
+            public void run() {
+                for (int index = next.getAndIncrement(); index < count; index = next.getAndIncrement()) {
+                    try {
+                        // The rest is skipped after the first failure.
+                        if (error.get() == null) task.run(index);
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }
+        };
+        int workers = Math.min(count, Runtime.getRuntime().availableProcessors()) - 1;
+        try {
+            for (int i = 0; i < workers; i++) executor.execute(worker);
+        } catch (RejectedExecutionException e) {
+            // The calling thread does the rest.
+        }
+        worker.run();
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+
+        Throwable cause = error.get();
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        if (cause != null) throw new RuntimeException(cause);
+    }
+
+    /**
+     * Waits for the result of the task, the exception thrown by the task is rethrown as it is if possible.
+     */
+    static <T> T getResult(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Maps the whole file into memory for reading.
+     */
+    static MappedByteBuffer map(File file) {
+        try {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                // The mapping stays valid after the channel is closed.
+                FileChannel channel = input.getChannel();
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) { throw new RuntimeException(e); }
+    }
+
+    /**
+     * Number of `\n` chars, the string is scanned by `indexOf`.
+     */
+    static int countNewlines(CharSequence content) {
+        int count = 0;
+        if (content instanceof String) {
+            String string = (String) content;
+            for (int i = string.indexOf('\n'); i >= 0; i = string.indexOf('\n', i + 1)) count++;
+            return count;
+        }
+        for (int i = 0; i < content.length(); i++) {
+            if (content.charAt(i) == '\n') count++;
+        }
+        return count;
+    }
+
+    /**
+     * Number of `\n` bytes in the range.
+     */
+    static int countNewlines(byte[] bytes, int from, int to) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == '\n') count++;
+        }
+        return count;
+    }
 }
@@ -0,0 +1,482 @@
+package com.atlassian.sourcemap;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.List;
+
+/**
+ * Minimal pull scanner for the JSON subset used by source maps.
+ *
+ * Reads characters straight from the reader into a fixed-size buffer, values that aren't needed are skipped
+ * without building any objects. The content of string could be read either as a whole or char by char (it's used
+ * to feed the `mappings` into the VLQ decoder without materializing it). If the input is UTF-8 bytes the ASCII
+ * strings could be copied as bytes, without decoding them.
+ */
+class JsonScanner {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int END_OF_STRING = -1;
+    private static final int NOT_PEEKED = -2;
+    private static final String XSSI_PREFIX = ")]}'";
+
+    // Either reader or bytes.
+    private final Reader reader;
+    private final ByteBuffer bytes;
+    private final CharsetDecoder decoder;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position = 0;
+    private int limit = 0;
+    private int consumed = 0;
+
+    // Reused for reading strings.
+    private final StringBuilder stringBuffer = new StringBuilder();
+    // If not null every char read is appended to it.
+    private StringBuilder rawValue = null;
+
+    JsonScanner(Reader reader) {
+        this.reader = reader;
+        this.bytes = null;
+        this.decoder = null;
+    }
+
+    /**
+     * Scanner reading UTF-8 bytes from the buffer position till its limit, the buffer position is changed.
+     */
+    JsonScanner(ByteBuffer bytes) {
+        this.reader = null;
+        this.bytes = bytes;
+        this.decoder = Consumer.UTF8.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+    }
+
+    /**
+     * Consumes the `{` token.
+     */
+    void beginObject() {
+        expect('{');
+    }
+
+    /**
+     * Consumes the `{` token of the top level object, the `)]}'` prefix protecting against XSSI is skipped if it's
+     * there.
+     */
+    void beginDocument() {
+        if (peekToken() == ')') expectLiteral(XSSI_PREFIX);
+        beginObject();
+    }
+
+    /**
+     * Consumes the separator before the next field of object, or the `}` token if there are no more fields.
+     * @return true if there is next field.
+     */
+    boolean hasNextField(boolean isFirst) {
+        int c = peekToken();
+        if (c == '}') {
+            read();
+            return false;
+        }
+        if (!isFirst) expect(',');
+        return true;
+    }
+
+    /**
+     * Consumes the `[` token.
+     */
+    void beginArray() {
+        expect('[');
+    }
+
+    /**
+     * Consumes the separator before the next element of array, or the `]` token if there are no more elements.
+     * @return true if there is next element.
+     */
+    boolean hasNextElement(boolean isFirst) {
+        int c = peekToken();
+        if (c == ']') {
+            read();
+            return false;
+        }
+        if (!isFirst) expect(',');
+        return true;
+    }
+
+    /**
+     * Reads the field name and the `:` token.
+     */
+    String nextName() {
+        String name = nextString();
+        expect(':');
+        return name;
+    }
+
+    /**
+     * Reads the string value.
+     */
+    String nextString() {
+        beginString();
+        stringBuffer.setLength(0);
+        while (true) {
+            if (position == limit && !fill()) throw error("'\"'");
+            // Copying chars in bulk until the closing quote or escape sequence.
+            int start = position;
+            while (position < limit && buffer[position] != '"' && buffer[position] != '\\') position++;
+            stringBuffer.append(buffer, start, position - start);
+            if (rawValue != null) rawValue.append(buffer, start, position - start);
+            if (position == limit) continue;
+            int c = readStringChar();
+            if (c == END_OF_STRING) break;
+            stringBuffer.append((char) c);
+        }
+        return stringBuffer.toString();
+    }
+
+    /**
+     * True if the input is bytes.
+     */
+    boolean hasBytes() {
+        return bytes != null;
+    }
+
+    /**
+     * Reads the string value, if the input is bytes and the string is ASCII without escapes it's copied without
+     * decoding.
+     */
+    CharSequence nextAsciiString() {
+        if (peekToken() != '"' || bytes == null) return nextString();
+        // The chars in buffer have been decoded from the bytes just before the buffer position.
+        int start = bytes.position() - utf8Length(buffer, position, limit) + 1;
+        int end = start;
+        while (end < bytes.limit()) {
+            byte b = bytes.get(end);
+            if (b == '"') break;
+            if (b == '\\' || b < ' ') return nextString();
+            end++;
+        }
+        if (end == bytes.limit()) return nextString();
+
+        byte[] value = new byte[end - start];
+        ByteBuffer source = bytes.duplicate();
+        source.position(start);
+        source.get(value);
+        // Skipping the string and the closing quote, the buffer is filled again from the next byte.
+        consumed += position + 1 + value.length + 1;
+        position = 0;
+        limit = 0;
+        bytes.position(end + 1);
+        return new AsciiSequence(value);
+    }
+
+    private static int utf8Length(char[] chars, int from, int to) {
+        int length = 0;
+        for (int i = from; i < to; i++) {
+            char c = chars[i];
+            if (c < 0x80) length += 1;
+            else if (c < 0x800) length += 2;
+            // Surrogate pair is encoded as 4 bytes.
+            else if (Character.isHighSurrogate(c)) length += 4;
+            else if (!Character.isLowSurrogate(c)) length += 3;
+        }
+        return length;
+    }
+
+    /**
+     * Reads the string value or null.
+     */
+    String nextStringOrNull() {
+        if (peekToken() == 'n') {
+            expectLiteral("null");
+            return null;
+        }
+        return nextString();
+    }
+
+    /**
+     * Reads the integer value, the number with fraction or exponent is accepted if its value is integer, like
+     * `3.0` or `3e0`.
+     */
+    int nextInt() {
+        int c = peekToken();
+        int start = consumed + position;
+        boolean negative = false;
+        if (c == '-') {
+            negative = true;
+            read();
+            c = peek();
+        }
+        if (c < '0' || c > '9') throw error("number");
+        // Accumulated as negative, it has one more value than positive.
+        long value = 0;
+        while (c >= '0' && c <= '9') {
+            value = value * 10 - (c - '0');
+            if (value < Integer.MIN_VALUE) throw error("integer", start);
+            read();
+            c = peek();
+        }
+        if (!negative && value == Integer.MIN_VALUE) throw error("integer", start);
+        if (c == '.' || c == 'e' || c == 'E') return nextIntFraction(negative ? value : -value, start);
+        return (int) (negative ? value : -value);
+    }
+
+    /**
+     * Reads the fraction and exponent of the integer value.
+     */
+    private int nextIntFraction(long integer, int start) {
+        StringBuilder number = new StringBuilder().append(integer);
+        int c;
+        while (((c = peek()) >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+            number.append((char) read());
+        }
+        try {
+            return new BigDecimal(number.toString()).intValueExact();
+        } catch (NumberFormatException e) {
+            throw error("number", start);
+        } catch (ArithmeticException e) {
+            throw error("integer", start);
+        }
+    }
+
+    /**
+     * Reads array of strings (or nulls) into the list.
+     */
+    void nextStringArray(List<String> list) {
+        expect('[');
+        if (peekToken() == ']') {
+            read();
+            return;
+        }
+        do {
+            list.add(nextStringOrNull());
+        } while (tryConsume(','));
+        expect(']');
+    }
+
+    /**
+     * Reads array of strings (or nulls) into the list.
+     * @return the array as it is in the JSON.
+     */
+    String nextRawStringArray(List<String> list) {
+        peekToken();
+        rawValue = new StringBuilder();
+        try {
+            nextStringArray(list);
+            return rawValue.toString();
+        } finally {
+            rawValue = null;
+        }
+    }
+
+    /**
+     * Starts reading the content of string char by char. The iterator stops on the closing quote and consumes it.
+     * @param capture if not null the chars read by the iterator are appended to it.
+     */
+    Consumer.PeekingCharIterator nextStringIterator(StringBuilder capture) {
+        beginString();
+        return new StringContentIterator(capture);
+    }
+
+    /**
+     * Skips the value without building any objects.
+     */
+    void skipValue() {
+        int c = peekToken();
+        switch (c) {
+            case '"':
+                beginString();
+                while (readStringChar() != END_OF_STRING);
+                break;
+            case '{':
+                read();
+                boolean isFirst = true;
+                while (hasNextField(isFirst)) {
+                    isFirst = false;
+                    // Skipping the name too, it's not needed.
+                    if (peekToken() != '"') throw error("'\"'");
+                    skipValue();
+                    expect(':');
+                    skipValue();
+                }
+                break;
+            case '[':
+                read();
+                if (peekToken() == ']') {
+                    read();
+                    break;
+                }
+                do {
+                    skipValue();
+                } while (tryConsume(','));
+                expect(']');
+                break;
+            default:
+                // Number or literal.
+                int length = 0;
+                while ((c = peek()) != -1 && c != ',' && c != '}' && c != ']' && !isWhitespace(c)) {
+                    read();
+                    length++;
+                }
+                if (length == 0) throw error("value");
+        }
+    }
+
+    /**
+     * Reads the value as it is, without parsing it.
+     */
+    String nextRawValue() {
+        peekToken();
+        rawValue = new StringBuilder();
+        try {
+            skipValue();
+            return rawValue.toString();
+        } finally {
+            rawValue = null;
+        }
+    }
+
+    /**
+     * Ensures there's nothing except whitespaces left.
+     */
+    void end() {
+        if (peekToken() != -1) throw error("end of input");
+    }
+
+    private void beginString() {
+        expect('"');
+    }
+
+    private boolean tryConsume(char token) {
+        if (peekToken() != token) return false;
+        read();
+        return true;
+    }
+
+    private void expect(char token) {
+        if (peekToken() != token) throw error("'" + token + "'");
+        read();
+    }
+
+    private void expectLiteral(String literal) {
+        for (int i = 0; i < literal.length(); i++) {
+            if (read() != literal.charAt(i)) throw error(literal);
+        }
+    }
+
+    /**
+     * Reads the next char of the string content with escapes resolved, or `END_OF_STRING` when the closing quote
+     * is consumed.
+     */
+    private int readStringChar() {
+        int c = read();
+        if (c == '"') return END_OF_STRING;
+        if (c == -1) throw error("'\"'");
+        if (c != '\\') return c;
+        c = read();
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/': return c;
+            case 'b': return '\b';
+            case 'f': return '\f';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 't': return '\t';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) throw error("hex digit");
+                    value = (value << 4) + digit;
+                }
+                return value;
+            default: throw error("escape sequence");
+        }
+    }
+
+    private int peekToken() {
+        int c;
+        while (isWhitespace(c = peek())) read();
+        return c;
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private int peek() {
+        if (position == limit && !fill()) return -1;
+        return buffer[position];
+    }
+
+    private int read() {
+        if (position == limit && !fill()) return -1;
+        char c = buffer[position++];
+        if (rawValue != null) rawValue.append(c);
+        return c;
+    }
+
+    private boolean fill() {
+        try {
+            consumed += limit;
+            position = 0;
+            limit = 0;
+            if (bytes != null) return decode();
+            int count = reader.read(buffer, 0, buffer.length);
+            if (count <= 0) return false;
+            limit = count;
+            return true;
+        } catch (IOException e) { throw new RuntimeException(e); }
+    }
+
+    private boolean decode() throws CharacterCodingException {
+        CharBuffer out = CharBuffer.wrap(buffer);
+        CoderResult result = decoder.decode(bytes, out, true);
+        if (result.isError()) result.throwException();
+        limit = out.position();
+        return limit > 0;
+    }
+
+    private RuntimeException error(String expected) {
+        return error(expected, consumed + position);
+    }
+
+    private static RuntimeException error(String expected, int position) {
+        return new RuntimeException("invalid source map JSON, expected " + expected + " at position " + position
+            + "!");
+    }
+
+    private class StringContentIterator implements Consumer.PeekingCharIterator {
+        private final StringBuilder capture;
+        private int peeked = NOT_PEEKED;
+
+        StringContentIterator(StringBuilder capture) {
+            this.capture = capture;
+        }
+
+        public boolean hasNext() {
+            return peekStringChar() != END_OF_STRING;
+        }
+
+        public char next() {
+            char c = peek();
+            peeked = NOT_PEEKED;
+            if (capture != null) capture.append(c);
+            return c;
+        }
+
+        public char peek() {
+            int c = peekStringChar();
+            if (c == END_OF_STRING) throw error("more characters in string");
+            return (char) c;
+        }
+
+        private int peekStringChar() {
+            if (peeked == NOT_PEEKED) peeked = readStringChar();
+            return peeked;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package com.atlassian.sourcemap;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mappings decoded line by line on demand.
+ *
+ * The encoded mappings are scanned only for the `;` line separators. The VLQ fields are relative to the previous
+ * segment, so in order to decode some line the running state (source index, source line, source column and name
+ * index) at its start is needed, it's stored at checkpoints every `CHECKPOINT_INTERVAL` lines. Checkpoints are
+ * calculated only as far as the lookups go, so the first lookup costs roughly a scan of the preceding lines. Decoded
+ * lines are kept in the bounded LRU cache. Lookups are thread safe.
+ */
+class LazyMappings implements MappingReader {
+    static final int CHECKPOINT_INTERVAL = 64;
+    static final int CACHE_SIZE = 256;
+    private static final int UNMAPPED = MappingTable.UNMAPPED;
+
+    private static final int STATE_SIZE = 4;
+    private static final int SOURCE_FILE_NAME_INDEX = 0;
+    private static final int SOURCE_LINE = 1;
+    private static final int SOURCE_COLUMN = 2;
+    private static final int SOURCE_SYMBOL_NAME_INDEX = 3;
+
+    private final String content;
+    private final List<String> sourceFileNames;
+    private final List<String> sourceSymbolNames;
+
+    // Position of the first char of every line, `lineStarts[lineCount]` is the position after the end of last line
+    // separator (or after the end of the content if there's no trailing separator).
+    private final int[] lineStarts;
+    private final int lineCount;
+
+    // State at the start of the lines `i * CHECKPOINT_INTERVAL`, `STATE_SIZE` values per checkpoint.
+    private int[] checkpoints;
+    private int checkpointCount = 1;
+
+    private final Map<Integer, Line> cache = new LinkedHashMap<Integer, Line>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Line> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    LazyMappings(String content, List<String> sourceFileNames, List<String> sourceSymbolNames) {
+        this.content = content;
+        this.sourceFileNames = sourceFileNames;
+        this.sourceSymbolNames = sourceSymbolNames;
+
+        int separators = 0;
+        for (int i = content.indexOf(';'); i >= 0; i = content.indexOf(';', i + 1)) separators++;
+        // Some source map generator (e.g.UglifyJS) generates lines without
+        // a trailing line separator.
+        boolean hasTrailingLine = content.length() > 0 && content.charAt(content.length() - 1) != ';';
+        lineCount = separators + (hasTrailingLine ? 1 : 0);
+
+        lineStarts = new int[lineCount + 1];
+        int line = 0;
+        for (int i = content.indexOf(';'); i >= 0; i = content.indexOf(';', i + 1)) lineStarts[++line] = i + 1;
+        if (hasTrailingLine) lineStarts[lineCount] = content.length() + 1;
+
+        checkpoints = new int[STATE_SIZE * (lineCount / CHECKPOINT_INTERVAL + 1)];
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    public List<String> getSourceFileNames() {
+        return sourceFileNames;
+    }
+
+    public List<String> getSourceSymbolNames() {
+        return sourceSymbolNames;
+    }
+
+    public Mapping getMapping(int lineNumber, int column) {
+        if (lineNumber < 0 || lineNumber >= lineCount) return null;
+        if (column < 0) throw new RuntimeException("invalid column number!");
+        return InternalUtil.mappedOrNull(getLastSegment(lineNumber, column));
+    }
+
+    public Mapping getLastSegment(int lineNumber, int column) {
+        if (lineNumber < 0 || lineCount == 0) return null;
+        if (lineNumber >= lineCount) {
+            lineNumber = lineCount - 1;
+            column = Integer.MAX_VALUE;
+        }
+
+        Line line = getLine(lineNumber);
+        // If the line is empty or starts after the column return the last segment of the previous line.
+        if (line.size == 0 || line.generatedColumns[0] > column) {
+            do {
+                if (lineNumber == 0) return null;
+                lineNumber--;
+            } while (isEmpty(lineNumber));
+            line = getLine(lineNumber);
+            return createMapping(lineNumber, line, line.size - 1);
+        }
+        return createMapping(lineNumber, line, MappingTable.search(line.generatedColumns, column, 0, line.size));
+    }
+
+    public void eachMapping(SourceMap.EachMappingCallback cb) {
+        int[] state = new int[STATE_SIZE];
+        Line line = new Line();
+        for (int lineNumber = 0; lineNumber < lineCount; lineNumber++) {
+            decodeLine(lineNumber, state, line);
+            for (int i = 0; i < line.size; i++) cb.apply(createMapping(lineNumber, line, i));
+        }
+    }
+
+    public MappingTable toMappingTable() {
+        MappingTable table = new MappingTable(sourceFileNames, sourceSymbolNames);
+        int[] state = new int[STATE_SIZE];
+        Line line = new Line();
+        for (int lineNumber = 0; lineNumber < lineCount; lineNumber++) {
+            decodeLine(lineNumber, state, line);
+            for (int i = 0; i < line.size; i++) {
+                table.add(lineNumber, line.generatedColumns[i], line.sourceFileNameIndexes[i], line.sourceLines[i],
+                    line.sourceColumns[i], line.sourceSymbolNameIndexes[i]);
+            }
+        }
+        table.ensureLineCount(lineCount);
+        table.trimToSize();
+        return table;
+    }
+
+    private boolean isEmpty(int lineNumber) {
+        return lineStarts[lineNumber + 1] - lineStarts[lineNumber] <= 1;
+    }
+
+    /**
+     * Decoded line, the cache and checkpoints are changed by every lookup so they are guarded by the lock.
+     */
+    private synchronized Line getLine(int lineNumber) {
+        Line line = cache.get(lineNumber);
+        if (line != null) return line;
+
+        int checkpoint = lineNumber / CHECKPOINT_INTERVAL;
+        int[] state = new int[STATE_SIZE];
+        if (checkpoint < checkpointCount) {
+            System.arraycopy(checkpoints, checkpoint * STATE_SIZE, state, 0, STATE_SIZE);
+        } else {
+            // Calculating missing checkpoints, starting from the last known one.
+            System.arraycopy(checkpoints, (checkpointCount - 1) * STATE_SIZE, state, 0, STATE_SIZE);
+            for (int i = (checkpointCount - 1) * CHECKPOINT_INTERVAL; i < checkpoint * CHECKPOINT_INTERVAL; i++) {
+                decodeLine(i, state, null);
+                if ((i + 1) % CHECKPOINT_INTERVAL == 0) {
+                    System.arraycopy(state, 0, checkpoints, checkpointCount * STATE_SIZE, STATE_SIZE);
+                    checkpointCount++;
+                }
+            }
+        }
+        for (int i = checkpoint * CHECKPOINT_INTERVAL; i < lineNumber; i++) decodeLine(i, state, null);
+
+        line = new Line();
+        decodeLine(lineNumber, state, line);
+        line.trimToSize();
+        cache.put(lineNumber, line);
+        return line;
+    }
+
+    /**
+     * Decodes segments of the line, using and updating the running state. Segments are stored into the given line
+     * if it's not null, otherwise the line is only scanned to update the state.
+     */
+    private void decodeLine(int lineNumber, int[] state, Line line) {
+        if (line != null) line.size = 0;
+        Cursor cursor = new Cursor(lineStarts[lineNumber], lineStarts[lineNumber + 1] - 1);
+        int column = 0;
+        boolean isUnsorted = false;
+        while (cursor.hasNext()) {
+            // The values, if present are in the following order:
+            //   0: the starting column in the current line of the generated file
+            //   1: the id of the original source file
+            //   2: the starting line in the original source
+            //   3: the starting column in the original source
+            //   4: the id of the original symbol name
+            // The values are relative to the last encountered value for that field, except of the column that
+            // is reset on every line.
+            int columnDelta = Base64VLQ.decode(cursor);
+            // The column could go back only if the segments are out of order.
+            if (columnDelta < 0) isUnsorted = true;
+            column += columnDelta;
+            int sourceFileNameIndex = UNMAPPED;
+            int sourceSymbolNameIndex = UNMAPPED;
+            if (!cursor.isEntryComplete()) {
+                state[SOURCE_FILE_NAME_INDEX] += Base64VLQ.decode(cursor);
+                state[SOURCE_LINE] += Base64VLQ.decode(cursor);
+                state[SOURCE_COLUMN] += Base64VLQ.decode(cursor);
+                sourceFileNameIndex = checkIndex(state[SOURCE_FILE_NAME_INDEX], sourceFileNames);
+                if (!cursor.isEntryComplete()) {
+                    state[SOURCE_SYMBOL_NAME_INDEX] += Base64VLQ.decode(cursor);
+                    sourceSymbolNameIndex = checkIndex(state[SOURCE_SYMBOL_NAME_INDEX], sourceSymbolNames);
+                }
+                if (!cursor.isEntryComplete())
+                    throw new IllegalStateException("Unexpected number of values for entry in line " + lineNumber);
+            }
+            if (line != null) line.add(column, sourceFileNameIndex, state[SOURCE_LINE], state[SOURCE_COLUMN],
+                sourceSymbolNameIndex);
+
+            // Consume the separating token, if there is one.
+            cursor.skipSeparator();
+        }
+        // Some source map generators produce segments out of column order.
+        if (line != null && isUnsorted) line.sort();
+    }
+
+    private static int checkIndex(int index, List<String> names) {
+        if (index < 0 || index >= names.size()) throw new RuntimeException("invalid name index " + index + "!");
+        return index;
+    }
+
+    private Mapping createMapping(int lineNumber, Line line, int index) {
+        int sourceFileNameIndex = line.sourceFileNameIndexes[index];
+        if (sourceFileNameIndex == UNMAPPED) {
+            return new MappingImpl(lineNumber, line.generatedColumns[index], UNMAPPED, UNMAPPED, null, null);
+        }
+        int sourceSymbolNameIndex = line.sourceSymbolNameIndexes[index];
+        return new MappingImpl(
+            lineNumber,
+            line.generatedColumns[index],
+            line.sourceLines[index],
+            line.sourceColumns[index],
+            sourceFileNames.get(sourceFileNameIndex),
+            sourceSymbolNameIndex == UNMAPPED ? null : sourceSymbolNames.get(sourceSymbolNameIndex)
+        );
+    }
+
+    /**
+     * Decoded segments of single line.
+     */
+    private static class Line {
+        int[] generatedColumns = new int[8];
+        int[] sourceFileNameIndexes = new int[8];
+        int[] sourceLines = new int[8];
+        int[] sourceColumns = new int[8];
+        int[] sourceSymbolNameIndexes = new int[8];
+        int size = 0;
+
+        void add(int generatedColumn, int sourceFileNameIndex, int sourceLine, int sourceColumn,
+                 int sourceSymbolNameIndex) {
+            if (size == generatedColumns.length) resize(size * 2);
+            generatedColumns[size] = generatedColumn;
+            sourceFileNameIndexes[size] = sourceFileNameIndex;
+            sourceLines[size] = sourceLine;
+            sourceColumns[size] = sourceColumn;
+            sourceSymbolNameIndexes[size] = sourceSymbolNameIndex;
+            size++;
+        }
+
+        void trimToSize() {
+            resize(size);
+        }
+
+        /**
+         * Sorts segments by column, the segments with the same column keep their order.
+         */
+        void sort() {
+            int[] order = InternalUtil.columnOrder(generatedColumns, 0, size);
+            InternalUtil.reorder(generatedColumns, order, 0);
+            InternalUtil.reorder(sourceFileNameIndexes, order, 0);
+            InternalUtil.reorder(sourceLines, order, 0);
+            InternalUtil.reorder(sourceColumns, order, 0);
+            InternalUtil.reorder(sourceSymbolNameIndexes, order, 0);
+        }
+
+        private void resize(int capacity) {
+            generatedColumns = Arrays.copyOf(generatedColumns, capacity);
+            sourceFileNameIndexes = Arrays.copyOf(sourceFileNameIndexes, capacity);
+            sourceLines = Arrays.copyOf(sourceLines, capacity);
+            sourceColumns = Arrays.copyOf(sourceColumns, capacity);
+            sourceSymbolNameIndexes = Arrays.copyOf(sourceSymbolNameIndexes, capacity);
+        }
+    }
+
+    /**
+     * Iterates over chars of the single line.
+     */
+    private class Cursor implements Base64VLQ.CharIterator {
+        private int position;
+        private final int end;
+
+        Cursor(int start, int end) {
+            this.position = start;
+            this.end = end;
+        }
+
+        public boolean hasNext() {
+            return position < end;
+        }
+
+        public char next() {
+            if (position >= end) throw new IllegalStateException("Unexpected end of entry");
+            return content.charAt(position++);
+        }
+
+        boolean isEntryComplete() {
+            return position >= end || content.charAt(position) == ',';
+        }
+
+        void skipSeparator() {
+            if (position < end && content.charAt(position) == ',') position++;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.atlassian.sourcemap;
+
+import java.util.List;
+
+/**
+ * Read only mappings that are decoded on demand.
+ */
+interface MappingReader {
+    Mapping getMapping(int lineNumber, int column);
+
+    /**
+     * The last segment at or before the position, the unmapped segment is returned as mapping without source file
+     * name. If the position is after the last line the last segment is returned, null if there are no segments before
+     * the position.
+     */
+    Mapping getLastSegment(int lineNumber, int column);
+
+    int getLineCount();
+
+    void eachMapping(SourceMap.EachMappingCallback cb);
+
+    List<String> getSourceFileNames();
+
+    List<String> getSourceSymbolNames();
+
+    /**
+     * Decodes all the mappings.
+     */
+    MappingTable toMappingTable();
+}
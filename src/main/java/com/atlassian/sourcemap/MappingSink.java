@@ -0,0 +1,37 @@
+package com.atlassian.sourcemap;
+
+/**
+ * Low-level way to add mappings without creating any objects per mapping, for tools generating lots of mappings.
+ *
+ * The source file and symbol names are registered once and referred to by the returned ids, the segments are given
+ * as plain ints. Segments should be added in order of generated line and column.
+ */
+public interface MappingSink {
+    /**
+     * Symbol name id of the segment without symbol name.
+     */
+    public static final int NO_NAME = -1;
+
+    /**
+     * Id of the source file name, the name is registered if it's not registered yet.
+     */
+    public int addSourceFileName(String sourceFileName);
+
+    /**
+     * Id of the symbol name, the name is registered if it's not registered yet.
+     */
+    public int addSourceSymbolName(String sourceSymbolName);
+
+    /**
+     * Add segment mapped to the source position.
+     * @param sourceFileNameId id returned by `addSourceFileName`.
+     * @param sourceSymbolNameId id returned by `addSourceSymbolName` or `NO_NAME`.
+     */
+    public void addSegment(int generatedLine, int generatedColumn, int sourceFileNameId, int sourceLine,
+                           int sourceColumn, int sourceSymbolNameId);
+
+    /**
+     * Add segment that isn't mapped to any source position.
+     */
+    public void addUnmappedSegment(int generatedLine, int generatedColumn);
+}
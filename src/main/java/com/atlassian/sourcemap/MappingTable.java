@@ -0,0 +1,434 @@
+package com.atlassian.sourcemap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Columnar storage of mappings.
+ *
+ * Segments are stored in parallel primitive arrays ordered by generated line and column, the generated line
+ * isn't stored at all - the segments of each line are addressed by the per-line offsets. The `Mapping` objects are
+ * created only when someone asks for it.
+ */
+class MappingTable {
+    static final int UNMAPPED = -1;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final List<String> sourceFileNames;
+    private final List<String> sourceSymbolNames;
+
+    // Indexes of names, built when the first mapping with names added.
+    private Map<String, Integer> sourceFileNameLookup = null;
+    private Map<String, Integer> sourceSymbolNameLookup = null;
+
+    // Index of the first segment of every line, `lineStarts[lineCount]` is always equal to the number of segments.
+    private int[] lineStarts = new int[INITIAL_CAPACITY];
+    private int lineCount = 0;
+
+    private int[] generatedColumns = new int[INITIAL_CAPACITY];
+    private int[] sourceFileNameIndexes = new int[INITIAL_CAPACITY];
+    private int[] sourceLines = new int[INITIAL_CAPACITY];
+    private int[] sourceColumns = new int[INITIAL_CAPACITY];
+    private int[] sourceSymbolNameIndexes = new int[INITIAL_CAPACITY];
+    private int size = 0;
+
+    MappingTable() {
+        this(new ArrayList<String>(), new ArrayList<String>());
+    }
+
+    /**
+     * Table with the names interned in the pool.
+     */
+    MappingTable(NamePool pool) {
+        this(new PooledNames(pool), new PooledNames(pool));
+    }
+
+    /**
+     * @param sourceFileNames mutable list of source file names, new names are added to it.
+     * @param sourceSymbolNames mutable list of symbol names, new names are added to it.
+     */
+    MappingTable(List<String> sourceFileNames, List<String> sourceSymbolNames) {
+        this.sourceFileNames = sourceFileNames;
+        this.sourceSymbolNames = sourceSymbolNames;
+    }
+
+    /**
+     * Table of already decoded segments, the arrays are used as they are.
+     * @param lineStarts index of the first segment of every line and the number of segments at `lineCount`.
+     */
+    MappingTable(List<String> sourceFileNames, List<String> sourceSymbolNames, int[] lineStarts, int lineCount,
+                 int[] generatedColumns, int[] sourceFileNameIndexes, int[] sourceLines, int[] sourceColumns,
+                 int[] sourceSymbolNameIndexes) {
+        this(sourceFileNames, sourceSymbolNames);
+        this.lineStarts = lineStarts;
+        this.lineCount = lineCount;
+        this.generatedColumns = generatedColumns;
+        this.sourceFileNameIndexes = sourceFileNameIndexes;
+        this.sourceLines = sourceLines;
+        this.sourceColumns = sourceColumns;
+        this.sourceSymbolNameIndexes = sourceSymbolNameIndexes;
+        this.size = generatedColumns.length;
+    }
+
+    /**
+     * Adds mapping, mappings should be added in order of generated line and column.
+     */
+    void addMapping(int generatedLine, int generatedColumn, int sourceLine, int sourceColumn, String sourceFileName,
+                    String sourceSymbolName) {
+        if (sourceFileName == null) throw new RuntimeException("source file name required!");
+        int sourceFileNameIndex = addSourceFileName(sourceFileName);
+        int sourceSymbolNameIndex = sourceSymbolName == null ? UNMAPPED : addSourceSymbolName(sourceSymbolName);
+        add(generatedLine, generatedColumn, sourceFileNameIndex, sourceLine, sourceColumn, sourceSymbolNameIndex);
+    }
+
+    /**
+     * Index of the source file name, the name is added if it's not in the table yet.
+     */
+    int addSourceFileName(String sourceFileName) {
+        if (sourceFileNames instanceof PooledNames) return ((PooledNames) sourceFileNames).indexOfOrAdd(sourceFileName);
+        if (sourceFileNameLookup == null) sourceFileNameLookup = buildLookup(sourceFileNames);
+        return indexOf(sourceFileName, sourceFileNames, sourceFileNameLookup);
+    }
+
+    /**
+     * Index of the symbol name, the name is added if it's not in the table yet.
+     */
+    int addSourceSymbolName(String sourceSymbolName) {
+        if (sourceSymbolNames instanceof PooledNames)
+            return ((PooledNames) sourceSymbolNames).indexOfOrAdd(sourceSymbolName);
+        if (sourceSymbolNameLookup == null) sourceSymbolNameLookup = buildLookup(sourceSymbolNames);
+        return indexOf(sourceSymbolName, sourceSymbolNames, sourceSymbolNameLookup);
+    }
+
+    private static Map<String, Integer> buildLookup(List<String> names) {
+        Map<String, Integer> lookup = new HashMap<String, Integer>();
+        // If there are duplicates the first one is used.
+        for (int i = names.size() - 1; i >= 0; i--) lookup.put(names.get(i), i);
+        return lookup;
+    }
+
+    private static int indexOf(String name, List<String> names, Map<String, Integer> lookup) {
+        Integer index = lookup.get(name);
+        if (index == null) {
+            index = names.size();
+            names.add(name);
+            lookup.put(name, index);
+        }
+        return index;
+    }
+
+    /**
+     * Adds mapping, the mapping without source file name is added as unmapped segment.
+     */
+    void add(Mapping mapping) {
+        if (mapping.getSourceFileName() == null) {
+            add(mapping.getGeneratedLine(), mapping.getGeneratedColumn(), UNMAPPED, UNMAPPED, UNMAPPED, UNMAPPED);
+        }
+        else addMapping(mapping.getGeneratedLine(), mapping.getGeneratedColumn(), mapping.getSourceLine(),
+            mapping.getSourceColumn(), mapping.getSourceFileName(), mapping.getSourceSymbolName());
+    }
+
+    /**
+     * Decoded mappings of source map, for `SourceMapImpl` and frozen source map its own table is returned and it
+     * shouldn't be modified.
+     */
+    static MappingTable of(SourceMap sourceMap) {
+        if (sourceMap instanceof SourceMapImpl) {
+            // 1 to 1 source map is kept as it is.
+            IdentityMappings identity = ((SourceMapImpl) sourceMap).getIdentityMappings();
+            return identity != null ? identity.toMappingTable() : ((SourceMapImpl) sourceMap).getMappingTable();
+        }
+        if (sourceMap instanceof FrozenSourceMap) return ((FrozenSourceMap) sourceMap).getMappingTable();
+        if (sourceMap instanceof BinarySourceMap) return ((BinarySourceMap) sourceMap).toMappingTable();
+        final MappingTable table = new MappingTable();
+        sourceMap.eachMapping(new SourceMap.EachMappingCallback() {
+            public void apply(Mapping mapping) {
+                table.add(mapping);
+            }
+        });
+        return table;
+    }
+
+    /**
+     * Adds segment, segments should be added in order of generated line and column. The source file name index
+     * should be `UNMAPPED` for unmapped segments, the symbol name index should be `UNMAPPED` if there's no symbol.
+     */
+    void add(int generatedLine, int generatedColumn, int sourceFileNameIndex, int sourceLine, int sourceColumn,
+             int sourceSymbolNameIndex) {
+        if ((generatedLine == lineCount - 1) && (size > lineStarts[generatedLine])
+            && (generatedColumns[size - 1] > generatedColumn))
+            throw new RuntimeException("mappings should be added in a proper order!");
+        addDecoded(generatedLine, generatedColumn, sourceFileNameIndex, sourceLine, sourceColumn,
+            sourceSymbolNameIndex);
+    }
+
+    /**
+     * Adds decoded segment, segments should be added in order of generated line but the segments of the line could
+     * be out of column order as some generators produce them. Then `sortLines` should be called after all the
+     * segments are added.
+     */
+    void addDecoded(int generatedLine, int generatedColumn, int sourceFileNameIndex, int sourceLine,
+                    int sourceColumn, int sourceSymbolNameIndex) {
+        if (generatedLine < lineCount - 1)
+            throw new RuntimeException("mappings should be added in a proper order!");
+        ensureLineCount(generatedLine + 1);
+
+        if (size == generatedColumns.length) {
+            int capacity = grow(size);
+            generatedColumns = Arrays.copyOf(generatedColumns, capacity);
+            sourceFileNameIndexes = Arrays.copyOf(sourceFileNameIndexes, capacity);
+            sourceLines = Arrays.copyOf(sourceLines, capacity);
+            sourceColumns = Arrays.copyOf(sourceColumns, capacity);
+            sourceSymbolNameIndexes = Arrays.copyOf(sourceSymbolNameIndexes, capacity);
+        }
+        generatedColumns[size] = generatedColumn;
+        sourceFileNameIndexes[size] = sourceFileNameIndex;
+        sourceLines[size] = sourceLine;
+        sourceColumns[size] = sourceColumn;
+        sourceSymbolNameIndexes[size] = sourceSymbolNameIndex;
+        size++;
+        lineStarts[lineCount] = size;
+    }
+
+    /**
+     * Adds empty lines if there are less than given number of lines.
+     */
+    void ensureLineCount(int count) {
+        if (count <= lineCount) return;
+        if (count + 1 > lineStarts.length) lineStarts = Arrays.copyOf(lineStarts, Math.max(grow(lineStarts.length), count + 1));
+        Arrays.fill(lineStarts, lineCount + 1, count + 1, size);
+        lineCount = count;
+    }
+
+    /**
+     * Sorts segments of the lines that are out of column order, the segments with the same column keep their order.
+     */
+    void sortLines() {
+        for (int line = 0; line < lineCount; line++) {
+            int start = lineStarts[line];
+            int end = lineStarts[line + 1];
+            for (int i = start + 1; i < end; i++) {
+                if (generatedColumns[i - 1] > generatedColumns[i]) {
+                    sortLine(start, end);
+                    break;
+                }
+            }
+        }
+    }
+
+    private void sortLine(int start, int end) {
+        int[] order = InternalUtil.columnOrder(generatedColumns, start, end);
+        InternalUtil.reorder(generatedColumns, order, start);
+        InternalUtil.reorder(sourceFileNameIndexes, order, start);
+        InternalUtil.reorder(sourceLines, order, start);
+        InternalUtil.reorder(sourceColumns, order, start);
+        InternalUtil.reorder(sourceSymbolNameIndexes, order, start);
+    }
+
+    /**
+     * Releases unused capacity, should be called when no more additions expected.
+     */
+    void trimToSize() {
+        lineStarts = Arrays.copyOf(lineStarts, lineCount + 1);
+        generatedColumns = Arrays.copyOf(generatedColumns, size);
+        sourceFileNameIndexes = Arrays.copyOf(sourceFileNameIndexes, size);
+        sourceLines = Arrays.copyOf(sourceLines, size);
+        sourceColumns = Arrays.copyOf(sourceColumns, size);
+        sourceSymbolNameIndexes = Arrays.copyOf(sourceSymbolNameIndexes, size);
+    }
+
+    /**
+     * Creates copy of the table with all the mappings shifted down by the given number of lines.
+     */
+    MappingTable copyWithLineOffset(int offset) {
+        if (offset < 0) throw new RuntimeException("invalid offset " + offset + "!");
+        MappingTable copy = new MappingTable(PooledNames.copyOf(sourceFileNames),
+            PooledNames.copyOf(sourceSymbolNames));
+        copy.lineCount = lineCount + offset;
+        copy.lineStarts = new int[copy.lineCount + 1];
+        System.arraycopy(lineStarts, 0, copy.lineStarts, offset, lineCount + 1);
+        copy.size = size;
+        copy.generatedColumns = Arrays.copyOf(generatedColumns, size);
+        copy.sourceFileNameIndexes = Arrays.copyOf(sourceFileNameIndexes, size);
+        copy.sourceLines = Arrays.copyOf(sourceLines, size);
+        copy.sourceColumns = Arrays.copyOf(sourceColumns, size);
+        copy.sourceSymbolNameIndexes = Arrays.copyOf(sourceSymbolNameIndexes, size);
+        return copy;
+    }
+
+    private static int grow(int capacity) {
+        return Math.max(INITIAL_CAPACITY, capacity + (capacity >> 1));
+    }
+
+    int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Rough estimate of the heap used by the table, in bytes.
+     */
+    long estimateSize() {
+        return 4L * (lineStarts.length + 5L * generatedColumns.length) + estimateSize(sourceFileNames)
+            + estimateSize(sourceSymbolNames);
+    }
+
+    static long estimateSize(List<String> names) {
+        long size = 0;
+        for (String name : names) size += 40 + (name == null ? 0 : 2L * name.length());
+        return size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    List<String> getSourceFileNames() {
+        return sourceFileNames;
+    }
+
+    List<String> getSourceSymbolNames() {
+        return sourceSymbolNames;
+    }
+
+    /**
+     * Index of the first segment of the line.
+     */
+    int getLineStart(int lineNumber) {
+        return lineStarts[lineNumber];
+    }
+
+    /**
+     * Index after the last segment of the line.
+     */
+    int getLineEnd(int lineNumber) {
+        return lineStarts[lineNumber + 1];
+    }
+
+    int getGeneratedColumn(int index) {
+        return generatedColumns[index];
+    }
+
+    int getSourceFileNameIndex(int index) {
+        return sourceFileNameIndexes[index];
+    }
+
+    int getSourceLine(int index) {
+        return sourceLines[index];
+    }
+
+    int getSourceColumn(int index) {
+        return sourceColumns[index];
+    }
+
+    int getSourceSymbolNameIndex(int index) {
+        return sourceSymbolNameIndexes[index];
+    }
+
+    public Mapping getMapping(int lineNumber, int column) {
+        if (lineNumber < 0 || lineNumber >= lineCount) return null;
+        if (column < 0) throw new RuntimeException("invalid column number!");
+
+        int start = lineStarts[lineNumber];
+        int end = lineStarts[lineNumber + 1];
+
+        // If the line is empty return the previous mapping.
+        if (end == start) return getPreviousMapping(lineNumber);
+        if (generatedColumns[start] > column) return getPreviousMapping(lineNumber);
+
+        return getMappingForEntry(lineNumber, search(generatedColumns, column, start, end));
+    }
+
+    public void eachMapping(SourceMap.EachMappingCallback cb) {
+        for (int line = 0; line < lineCount; line++) {
+            for (int i = lineStarts[line]; i < lineStarts[line + 1]; i++) cb.apply(createMapping(line, i));
+        }
+    }
+
+    /**
+     * Cursor to look up the positions in ascending order.
+     */
+    ForwardCursor forwardCursor() {
+        return new ForwardCursor();
+    }
+
+    /**
+     * Perform a binary search on the segments of the line to find the last segment that covers the target column,
+     * the first segment from `start` should start at or before the target column.
+     * @param end index after the last segment of the line.
+     */
+    static int search(int[] generatedColumns, int target, int start, int end) {
+        end--;
+        while (start < end) {
+            int mid = (start + end + 1) >>> 1;
+            if (generatedColumns[mid] <= target) start = mid;
+            else end = mid - 1;
+        }
+        return start;
+    }
+
+    /**
+     * Returns the mapping entry that proceeds the supplied line or null if no
+     * such entry exists.
+     */
+    private Mapping getPreviousMapping(int lineNumber) {
+        do {
+            if (lineNumber == 0) return null;
+            lineNumber--;
+        } while (lineStarts[lineNumber] == lineStarts[lineNumber + 1]);
+        return getMappingForEntry(lineNumber, lineStarts[lineNumber + 1] - 1);
+    }
+
+    /**
+     * Creates an "Mapping" object for the given entry, null if the entry is unmapped.
+     */
+    private Mapping getMappingForEntry(int lineNumber, int index) {
+        return (sourceFileNameIndexes[index] == UNMAPPED) ? null : createMapping(lineNumber, index);
+    }
+
+    /**
+     * Creates mapping for the segment, the line should be the line of the segment.
+     */
+    Mapping createMapping(int lineNumber, int index) {
+        int sourceFileNameIndex = sourceFileNameIndexes[index];
+        if (sourceFileNameIndex == UNMAPPED) {
+            return new MappingImpl(lineNumber, generatedColumns[index], UNMAPPED, UNMAPPED, null, null);
+        }
+        int sourceSymbolNameIndex = sourceSymbolNameIndexes[index];
+        return new MappingImpl(
+            lineNumber,
+            generatedColumns[index],
+            sourceLines[index],
+            sourceColumns[index],
+            sourceFileNames.get(sourceFileNameIndex),
+            sourceSymbolNameIndex == UNMAPPED ? null : sourceSymbolNames.get(sourceSymbolNameIndex)
+        );
+    }
+
+    /**
+     * Finds segments like `getMapping` does, but it only moves forward so the positions should be looked up in
+     * ascending order and then looking up all of them costs a single pass over the segments.
+     */
+    class ForwardCursor {
+        // The first segment after the position of the last lookup, and its line.
+        private int next = 0;
+        private int nextLine = 0;
+
+        /**
+         * @return index of the segment covering the position, `UNMAPPED` if the position isn't mapped.
+         */
+        int find(int lineNumber, int column) {
+            if (lineNumber < 0 || lineNumber >= lineCount) return UNMAPPED;
+            while (next < size) {
+                while (lineStarts[nextLine + 1] <= next) nextLine++;
+                if (nextLine > lineNumber || (nextLine == lineNumber && generatedColumns[next] > column)) break;
+                next++;
+            }
+            if (next == 0 || sourceFileNameIndexes[next - 1] == UNMAPPED) return UNMAPPED;
+            return next - 1;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.atlassian.sourcemap;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Pool of source file and symbol names shared by many source maps, every distinct name is stored once with its
+ * integer id and its escaped JSON form. It's thread safe, the names are never removed.
+ *
+ * The source maps parsed or created with the same pool refer to the pooled names by id, so they are generated without
+ * escaping the names again and joined or rebased by remapping the ids instead of looking up the names.
+ */
+public class NamePool {
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+    // Written only under the lock, the name is stored before its id is published.
+    private volatile String[] names = new String[16];
+    private volatile String[] escapedNames = new String[16];
+    private int size = 0;
+
+    /**
+     * Id of the name, the name is added if it's not in the pool yet.
+     */
+    public int intern(String name) {
+        if (name == null) throw new RuntimeException("name required!");
+        Integer id = ids.get(name);
+        if (id != null) return id;
+        synchronized (this) {
+            id = ids.get(name);
+            if (id != null) return id;
+            if (size == names.length) {
+                escapedNames = Arrays.copyOf(escapedNames, 2 * size);
+                names = Arrays.copyOf(names, 2 * size);
+            }
+            escapedNames[size] = InternalUtil.escapeString(name);
+            names[size] = name;
+            ids.put(name, size);
+            return size++;
+        }
+    }
+
+    /**
+     * Name with the given id.
+     */
+    public String getName(int id) {
+        return names[id];
+    }
+
+    /**
+     * Number of names in the pool.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Id of the name, -1 if it's not in the pool.
+     */
+    int getId(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Name with the given id escaped to double quoted JSON string.
+     */
+    String getEscapedName(int id) {
+        return escapedNames[id];
+    }
+}
@@ -0,0 +1,264 @@
+package com.atlassian.sourcemap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Decodes mappings on multiple threads.
+ *
+ * The VLQ fields are relative to the previous segment, so the mappings can't be simply decoded in parts. Instead the
+ * mappings are split into chunks at the segment separators and every chunk is decoded as if the running state
+ * (source index, source line, source column, name index and the column if the chunk starts in the middle of line)
+ * were zero at its start. Then the states at the chunk starts are calculated as prefix sums of the chunk deltas and
+ * added to the decoded values, the result is exactly the same as of the sequential decoding.
+ */
+class ParallelMappingDecoder {
+    static final int CHUNK_SIZE = 64 * 1024;
+    private static final int UNMAPPED = MappingTable.UNMAPPED;
+    private static final int MAX_ENTRY_VALUES = 5;
+
+    private final String content;
+    private final List<String> sourceFileNames;
+    private final List<String> sourceSymbolNames;
+
+    ParallelMappingDecoder(String content, List<String> sourceFileNames, List<String> sourceSymbolNames) {
+        this.content = content;
+        this.sourceFileNames = sourceFileNames;
+        this.sourceSymbolNames = sourceSymbolNames;
+    }
+
+    /**
+     * Decodes the mappings, small mappings are decoded in the calling thread. The calling thread decodes chunks too,
+     * so the executor could be bounded or busy, or it could be the executor running the calling thread.
+     */
+    MappingTable decode(ExecutorService executor) {
+        final List<Chunk> chunks = split();
+        run(executor, chunks, new ChunkTask() {
+            public void run(Chunk chunk) {
+                chunk.decode();
+            }
+        });
+
+        // States at the chunk starts.
+        boolean isUnsorted = false;
+        int size = 0;
+        int lineCount = 0;
+        int column = 0;
+        int[] state = new int[Chunk.STATE_SIZE];
+        for (Chunk chunk : chunks) {
+            chunk.segmentOffset = size;
+            chunk.lineOffset = lineCount;
+            chunk.startColumn = column;
+            System.arraycopy(state, 0, chunk.startState, 0, state.length);
+
+            size += chunk.size;
+            lineCount += chunk.lineEndCount;
+            column = chunk.lineEndCount > 0 ? chunk.column : column + chunk.column;
+            for (int i = 0; i < state.length; i++) state[i] += chunk.state[i];
+            isUnsorted |= chunk.isUnsorted;
+        }
+        // Some source map generator (e.g.UglifyJS) generates lines without
+        // a trailing line separator.
+        if (content.length() > 0 && content.charAt(content.length() - 1) != ';') lineCount++;
+
+        final int[] lineStarts = new int[lineCount + 1];
+        final int[] generatedColumns = new int[size];
+        final int[] sourceFileNameIndexes = new int[size];
+        final int[] sourceLines = new int[size];
+        final int[] sourceColumns = new int[size];
+        final int[] sourceSymbolNameIndexes = new int[size];
+        run(executor, chunks, new ChunkTask() {
+            public void run(Chunk chunk) {
+                chunk.copyTo(lineStarts, generatedColumns, sourceFileNameIndexes, sourceLines, sourceColumns,
+                    sourceSymbolNameIndexes);
+            }
+        });
+        lineStarts[lineCount] = size;
+        MappingTable table = new MappingTable(sourceFileNames, sourceSymbolNames, lineStarts, lineCount,
+            generatedColumns, sourceFileNameIndexes, sourceLines, sourceColumns, sourceSymbolNameIndexes);
+        // Some source map generators produce segments out of column order, they are sorted as the sequential
+        // decoding does.
+        if (isUnsorted) table.sortLines();
+        return table;
+    }
+
+    /**
+     * Splits the mappings into chunks of roughly `CHUNK_SIZE` chars, every chunk ends right after the `;` or `,`
+     * separator or at the end of the mappings.
+     */
+    private List<Chunk> split() {
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        int start = 0;
+        while (start < content.length()) {
+            int end = start + CHUNK_SIZE;
+            while (end < content.length() && content.charAt(end - 1) != ';' && content.charAt(end - 1) != ',') end++;
+            end = Math.min(end, content.length());
+            chunks.add(new Chunk(start, end));
+            start = end;
+        }
+        return chunks;
+    }
+
+    private interface ChunkTask {
+        void run(Chunk chunk);
+    }
+
+    private static void run(ExecutorService executor, final List<Chunk> chunks, final ChunkTask task) {
+        InternalUtil.runInParallel(executor, chunks.size(), new InternalUtil.IndexedTask() {
+            public void run(int index) {
+                task.run(chunks.get(index));
+            }
+        });
+    }
+
+    private static int checkIndex(int index, List<String> names) {
+        if (index < 0 || index >= names.size()) throw new RuntimeException("invalid name index " + index + "!");
+        return index;
+    }
+
+    /**
+     * Part of the mappings, decoded relative to its start.
+     */
+    private class Chunk implements Base64VLQ.CharIterator {
+        static final int STATE_SIZE = 4;
+        private static final int SOURCE_FILE_NAME_INDEX = 0;
+        private static final int SOURCE_LINE = 1;
+        private static final int SOURCE_COLUMN = 2;
+        private static final int SOURCE_SYMBOL_NAME_INDEX = 3;
+
+        private int position;
+        private final int end;
+
+        // Decoded segments, the values are relative to the chunk start. The number of values of every segment tells
+        // which of them are present.
+        private int[] generatedColumns = new int[16];
+        private int[] sourceFileNameIndexes = new int[16];
+        private int[] sourceLines = new int[16];
+        private int[] sourceColumns = new int[16];
+        private int[] sourceSymbolNameIndexes = new int[16];
+        private byte[] entryValues = new byte[16];
+        int size = 0;
+
+        // Number of segments before every `;` in the chunk.
+        private int[] lineEnds = new int[16];
+        int lineEndCount = 0;
+
+        // Running state at the end of the chunk, relative to its start. The column is relative to the chunk start
+        // only if there are no line separators in the chunk.
+        final int[] state = new int[STATE_SIZE];
+        int column = 0;
+        // The column could go back only if the segments are out of order.
+        boolean isUnsorted = false;
+
+        // Absolute state at the chunk start.
+        final int[] startState = new int[STATE_SIZE];
+        int startColumn;
+        int segmentOffset;
+        int lineOffset;
+
+        Chunk(int start, int end) {
+            this.position = start;
+            this.end = end;
+        }
+
+        void decode() {
+            int[] temp = new int[MAX_ENTRY_VALUES];
+            while (position < end) {
+                // ';' denotes a new line.
+                if (content.charAt(position) == ';') {
+                    position++;
+                    if (lineEndCount == lineEnds.length) lineEnds = Arrays.copyOf(lineEnds, 2 * lineEndCount);
+                    lineEnds[lineEndCount++] = size;
+                    column = 0;
+                    continue;
+                }
+
+                // grab the next entry for the current line.
+                int values = 0;
+                while (!isEntryComplete()) {
+                    if (values == MAX_ENTRY_VALUES)
+                        throw new IllegalStateException("Unexpected number of values for entry:" + (values + 1));
+                    temp[values++] = Base64VLQ.decode(this);
+                }
+                if (values != 1 && values != 4 && values != 5)
+                    throw new IllegalStateException("Unexpected number of values for entry:" + values);
+                if (temp[0] < 0) isUnsorted = true;
+                column += temp[0];
+                if (values > 1) {
+                    state[SOURCE_FILE_NAME_INDEX] += temp[1];
+                    state[SOURCE_LINE] += temp[2];
+                    state[SOURCE_COLUMN] += temp[3];
+                }
+                if (values > 4) state[SOURCE_SYMBOL_NAME_INDEX] += temp[4];
+                add(values);
+
+                // Consume the separating token, if there is one.
+                if (position < end && content.charAt(position) == ',') position++;
+            }
+        }
+
+        private void add(int values) {
+            if (size == generatedColumns.length) {
+                int capacity = 2 * size;
+                generatedColumns = Arrays.copyOf(generatedColumns, capacity);
+                sourceFileNameIndexes = Arrays.copyOf(sourceFileNameIndexes, capacity);
+                sourceLines = Arrays.copyOf(sourceLines, capacity);
+                sourceColumns = Arrays.copyOf(sourceColumns, capacity);
+                sourceSymbolNameIndexes = Arrays.copyOf(sourceSymbolNameIndexes, capacity);
+                entryValues = Arrays.copyOf(entryValues, capacity);
+            }
+            generatedColumns[size] = column;
+            sourceFileNameIndexes[size] = state[SOURCE_FILE_NAME_INDEX];
+            sourceLines[size] = state[SOURCE_LINE];
+            sourceColumns[size] = state[SOURCE_COLUMN];
+            sourceSymbolNameIndexes[size] = state[SOURCE_SYMBOL_NAME_INDEX];
+            entryValues[size] = (byte) values;
+            size++;
+        }
+
+        /**
+         * Adds the state at the chunk start to the decoded segments and copies them to their place in the table.
+         */
+        void copyTo(int[] lineStarts, int[] generatedColumns, int[] sourceFileNameIndexes, int[] sourceLines,
+                    int[] sourceColumns, int[] sourceSymbolNameIndexes) {
+            for (int i = 0; i < lineEndCount; i++) lineStarts[lineOffset + i + 1] = segmentOffset + lineEnds[i];
+
+            // Only the segments before the first line separator continue the line of the previous chunk.
+            int firstLineEnd = lineEndCount > 0 ? lineEnds[0] : size;
+            for (int i = 0; i < size; i++) {
+                int index = segmentOffset + i;
+                generatedColumns[index] = this.generatedColumns[i] + (i < firstLineEnd ? startColumn : 0);
+                if (entryValues[i] == 1) {
+                    // An unmapped section of the generated file.
+                    sourceFileNameIndexes[index] = UNMAPPED;
+                    sourceLines[index] = UNMAPPED;
+                    sourceColumns[index] = UNMAPPED;
+                    sourceSymbolNameIndexes[index] = UNMAPPED;
+                    continue;
+                }
+                sourceFileNameIndexes[index] = checkIndex(
+                    this.sourceFileNameIndexes[i] + startState[SOURCE_FILE_NAME_INDEX], sourceFileNames);
+                sourceLines[index] = this.sourceLines[i] + startState[SOURCE_LINE];
+                sourceColumns[index] = this.sourceColumns[i] + startState[SOURCE_COLUMN];
+                sourceSymbolNameIndexes[index] = entryValues[i] == 5 ? checkIndex(
+                    this.sourceSymbolNameIndexes[i] + startState[SOURCE_SYMBOL_NAME_INDEX], sourceSymbolNames)
+                    : UNMAPPED;
+            }
+        }
+
+        public boolean hasNext() {
+            return position < end;
+        }
+
+        public char next() {
+            if (position >= end) throw new IllegalStateException("Unexpected end of entry");
+            return content.charAt(position++);
+        }
+
+        private boolean isEntryComplete() {
+            return position >= end || content.charAt(position) == ',' || content.charAt(position) == ';';
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.atlassian.sourcemap;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * List of names of source map stored as ids of the pooled names, the added names are interned in the pool. The null
+ * name is stored as `NULL_ID`. Only adding is supported.
+ */
+class PooledNames extends AbstractList<String> implements RandomAccess {
+    static final int NULL_ID = -1;
+    private static final int NOT_FOUND = -1;
+    private static final int EMPTY = -1;
+
+    private final NamePool pool;
+    private int[] ids;
+    private int size = 0;
+
+    // Open addressing table of the first index of every id, the ids are at even and their indexes at odd positions.
+    // It's sized by the number of names of this list, not by the pool. Built on the first lookup.
+    private int[] table = null;
+    private int tableSize = 0;
+    private int nullIndex = NOT_FOUND;
+
+    PooledNames(NamePool pool) {
+        this(pool, new int[16], 0);
+    }
+
+    private PooledNames(NamePool pool, int[] ids, int size) {
+        this.pool = pool;
+        this.ids = ids;
+        this.size = size;
+    }
+
+    /**
+     * Mutable copy of the names, the pooled names are copied as ids.
+     */
+    static List<String> copyOf(List<String> names) {
+        if (!(names instanceof PooledNames)) return new ArrayList<String>(names);
+        PooledNames pooled = (PooledNames) names;
+        return new PooledNames(pooled.pool, Arrays.copyOf(pooled.ids, Math.max(pooled.size, 16)), pooled.size);
+    }
+
+    /**
+     * The pool of the names, null if they aren't pooled.
+     */
+    static NamePool getPool(List<String> names) {
+        return names instanceof PooledNames ? ((PooledNames) names).pool : null;
+    }
+
+    NamePool getPool() {
+        return pool;
+    }
+
+    @Override
+    public String get(int index) {
+        int id = getId(index);
+        return id == NULL_ID ? null : pool.getName(id);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean add(String name) {
+        addId(name == null ? NULL_ID : pool.intern(name));
+        return true;
+    }
+
+    @Override
+    public int indexOf(Object name) {
+        if (name == null) return indexOfId(NULL_ID);
+        if (!(name instanceof String)) return NOT_FOUND;
+        int id = pool.getId((String) name);
+        return id < 0 ? NOT_FOUND : indexOfId(id);
+    }
+
+    /**
+     * Pool id of the name with the given index, `NULL_ID` for null name.
+     */
+    int getId(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("index " + index);
+        return ids[index];
+    }
+
+    /**
+     * Index of the first name with the given pool id, -1 if there's no such name.
+     */
+    int indexOfId(int id) {
+        if (id == NULL_ID) return nullIndex;
+        if (table == null) {
+            table = newTable(size);
+            for (int i = 0; i < size; i++) index(ids[i], i);
+        }
+        int mask = table.length - 2;
+        for (int slot = hash(id) & mask; ; slot = (slot + 2) & mask) {
+            if (table[slot] == id) return table[slot + 1];
+            if (table[slot] == EMPTY) return NOT_FOUND;
+        }
+    }
+
+    /**
+     * Index of the name with the given pool id, the name is added if there's no such name.
+     */
+    int indexOfIdOrAdd(int id) {
+        int index = indexOfId(id);
+        if (index != NOT_FOUND) return index;
+        addId(id);
+        return size - 1;
+    }
+
+    /**
+     * Index of the name, the name is added if there's no such name.
+     */
+    int indexOfOrAdd(String name) {
+        return indexOfIdOrAdd(name == null ? NULL_ID : pool.intern(name));
+    }
+
+    void addId(int id) {
+        if (size == ids.length) ids = Arrays.copyOf(ids, Math.max(16, 2 * size));
+        ids[size] = id;
+        if (table != null || id == NULL_ID) index(id, size);
+        size++;
+        modCount++;
+    }
+
+    private void index(int id, int index) {
+        if (id == NULL_ID) {
+            if (nullIndex == NOT_FOUND) nullIndex = index;
+            return;
+        }
+        // Keeping the table at most half full.
+        if (4 * (tableSize + 1) > table.length) {
+            int[] previous = table;
+            table = newTable(2 * tableSize + 2);
+            tableSize = 0;
+            for (int slot = 0; slot < previous.length; slot += 2) {
+                if (previous[slot] != EMPTY) put(previous[slot], previous[slot + 1]);
+            }
+        }
+        put(id, index);
+    }
+
+    /**
+     * Adds the id with its index to the table, unless the id is already there.
+     */
+    private void put(int id, int index) {
+        int mask = table.length - 2;
+        int slot = hash(id) & mask;
+        while (table[slot] != EMPTY) {
+            if (table[slot] == id) return;
+            slot = (slot + 2) & mask;
+        }
+        table[slot] = id;
+        table[slot + 1] = index;
+        tableSize++;
+    }
+
+    /**
+     * Empty table with capacity for the given number of ids, at least twice as many slots as the ids.
+     */
+    private static int[] newTable(int count) {
+        int slots = 8;
+        while (slots < 2 * count) slots *= 2;
+        int[] table = new int[2 * slots];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+
+    /**
+     * Even position of the id slot before masking, the sequential ids are spread so they don't cluster.
+     */
+    private static int hash(int id) {
+        int h = id * 0x9E3779B9;
+        return (h ^ (h >>> 16)) << 1;
+    }
+}
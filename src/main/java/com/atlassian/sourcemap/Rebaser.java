@@ -0,0 +1,229 @@
+package com.atlassian.sourcemap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rebases source map on the source map of the previous transformation.
+ *
+ * Instead of looking up every source position in the previous map separately, the source positions are sorted (it's
+ * skipped if they're already in order, which is usual) and the previous map is swept once by the forward cursor.
+ * When every source file has its own previous map the mappings are grouped by the previous map first.
+ */
+class Rebaser {
+    private static final int UNMAPPED = MappingTable.UNMAPPED;
+
+    static SourceMap rebase(SourceMap sourceMap, SourceMap previousSourceMap) {
+        MappingTable mappings = MappingTable.of(sourceMap);
+        IdentityMappings identity = previousSourceMap instanceof SourceMapImpl
+            ? ((SourceMapImpl) previousSourceMap).getIdentityMappings() : null;
+        if (identity != null) return rebaseOnIdentity(mappings, identity);
+        MappingTable[] previous = new MappingTable[mappings.getSourceFileNames().size()];
+        Arrays.fill(previous, MappingTable.of(previousSourceMap));
+        return rebase(mappings, previous);
+    }
+
+    /**
+     * Rebases every mapping on the previous map of its source file, mappings of the files without previous map are
+     * kept as they are.
+     */
+    static SourceMap rebase(SourceMap sourceMap, Map<String, SourceMap> previousSourceMaps) {
+        MappingTable mappings = MappingTable.of(sourceMap);
+        List<String> sourceFileNames = mappings.getSourceFileNames();
+        MappingTable[] previous = new MappingTable[sourceFileNames.size()];
+        // The same previous map could be used for multiple files, it's decoded only once.
+        Map<SourceMap, MappingTable> tables = new IdentityHashMap<SourceMap, MappingTable>();
+        for (int i = 0; i < previous.length; i++) {
+            SourceMap previousSourceMap = previousSourceMaps.get(sourceFileNames.get(i));
+            if (previousSourceMap == null) continue;
+            MappingTable table = tables.get(previousSourceMap);
+            if (table == null) {
+                table = MappingTable.of(previousSourceMap);
+                tables.put(previousSourceMap, table);
+            }
+            previous[i] = table;
+        }
+        return rebase(mappings, previous);
+    }
+
+    /**
+     * @param previous previous map for every source file index, null if the mappings should be kept as they are.
+     */
+    private static SourceMap rebase(MappingTable mappings, MappingTable[] previous) {
+        // Grouping mappings by the previous map, so every previous map is swept once.
+        Map<MappingTable, Integer> groupIds = new IdentityHashMap<MappingTable, Integer>();
+        List<MappingTable> groups = new ArrayList<MappingTable>();
+        int[] fileGroups = new int[previous.length];
+        for (int i = 0; i < previous.length; i++) {
+            if (previous[i] == null) {
+                fileGroups[i] = UNMAPPED;
+                continue;
+            }
+            Integer groupId = groupIds.get(previous[i]);
+            if (groupId == null) {
+                groupId = groups.size();
+                groups.add(previous[i]);
+                groupIds.put(previous[i], groupId);
+            }
+            fileGroups[i] = groupId;
+        }
+
+        // Counting sort of the segments by group, the order of segments in group stays the same.
+        int[] groupStarts = new int[groups.size() + 1];
+        for (int i = 0; i < mappings.size(); i++) {
+            int group = getGroup(mappings, fileGroups, i);
+            if (group != UNMAPPED) groupStarts[group + 1]++;
+        }
+        for (int group = 0; group < groups.size(); group++) groupStarts[group + 1] += groupStarts[group];
+        int[] queries = new int[groupStarts[groups.size()]];
+        int[] positions = Arrays.copyOf(groupStarts, groups.size());
+        for (int i = 0; i < mappings.size(); i++) {
+            int group = getGroup(mappings, fileGroups, i);
+            if (group != UNMAPPED) queries[positions[group]++] = i;
+        }
+
+        int[] found = new int[mappings.size()];
+        long[] keys = new long[mappings.size()];
+        for (int group = 0; group < groups.size(); group++) {
+            find(mappings, queries, groupStarts[group], groupStarts[group + 1], groups.get(group), found, keys);
+        }
+
+        // The names are remapped to the rebased table by index, every name is looked up only once.
+        NamePool pool = PooledNames.getPool(mappings.getSourceFileNames());
+        MappingTable rebased = pool != null ? new MappingTable(pool) : new MappingTable();
+        Map<MappingTable, NameRemap> remaps = new IdentityHashMap<MappingTable, NameRemap>();
+        for (int line = 0; line < mappings.getLineCount(); line++) {
+            for (int i = mappings.getLineStart(line); i < mappings.getLineEnd(line); i++) {
+                int fileIndex = mappings.getSourceFileNameIndex(i);
+                if (fileIndex == UNMAPPED) continue;
+                // Mappings without previous map are copied.
+                MappingTable table = mappings;
+                int index = i;
+                if (previous[fileIndex] != null) {
+                    table = previous[fileIndex];
+                    index = found[i];
+                    if (index == UNMAPPED) continue;
+                }
+                NameRemap remap = remaps.get(table);
+                if (remap == null) {
+                    remap = new NameRemap(table, rebased);
+                    remaps.put(table, remap);
+                }
+                int nameIndex = table.getSourceSymbolNameIndex(index);
+                rebased.add(
+                    line,
+                    mappings.getGeneratedColumn(i),
+                    remap.getSourceFileNameIndex(table.getSourceFileNameIndex(index)),
+                    table.getSourceLine(index),
+                    table.getSourceColumn(index),
+                    nameIndex == UNMAPPED ? UNMAPPED : remap.getSourceSymbolNameIndex(nameIndex)
+                );
+            }
+        }
+        rebased.trimToSize();
+        return new SourceMapImpl(rebased);
+    }
+
+    /**
+     * Rebases on 1 to 1 map without looking up the positions, the 1 to 1 map has the single segment at the start of
+     * every line so the source position is moved to the start of its line. The lines past its end aren't mapped.
+     */
+    private static SourceMap rebaseOnIdentity(MappingTable mappings, IdentityMappings identity) {
+        NamePool pool = PooledNames.getPool(mappings.getSourceFileNames());
+        MappingTable rebased = pool != null ? new MappingTable(pool) : new MappingTable();
+        int fileIndex = UNMAPPED;
+        for (int line = 0; line < mappings.getLineCount(); line++) {
+            for (int i = mappings.getLineStart(line); i < mappings.getLineEnd(line); i++) {
+                if (mappings.getSourceFileNameIndex(i) == UNMAPPED) continue;
+                int sourceLine = mappings.getSourceLine(i);
+                if (sourceLine < 0 || sourceLine >= identity.getLineCount()) continue;
+                // Negative column is before the segment of its line, it's covered by the previous line.
+                if (mappings.getSourceColumn(i) < 0 && --sourceLine < 0) continue;
+                if (fileIndex == UNMAPPED) fileIndex = rebased.addSourceFileName(identity.getSourceFileName());
+                rebased.add(line, mappings.getGeneratedColumn(i), fileIndex, sourceLine, 0, UNMAPPED);
+            }
+        }
+        rebased.trimToSize();
+        return new SourceMapImpl(rebased);
+    }
+
+    private static int getGroup(MappingTable mappings, int[] fileGroups, int index) {
+        int fileIndex = mappings.getSourceFileNameIndex(index);
+        return fileIndex == UNMAPPED ? UNMAPPED : fileGroups[fileIndex];
+    }
+
+    /**
+     * Finds segments of the previous map for the source positions of the given segments.
+     * @param queries indexes of the segments, the range from start to end is reordered.
+     * @param found the index of the segment of the previous map is stored at the index of the query segment.
+     * @param keys buffer for the sort keys, indexed by segment.
+     */
+    private static void find(MappingTable mappings, int[] queries, int start, int end, MappingTable previous,
+                             int[] found, long[] keys) {
+        boolean sorted = true;
+        for (int i = start; i < end; i++) {
+            int query = queries[i];
+            keys[query] = InternalUtil.positionKey(mappings.getSourceLine(query), mappings.getSourceColumn(query));
+            if (i > start && keys[query] < keys[queries[i - 1]]) sorted = false;
+        }
+        if (!sorted) InternalUtil.sortByKeys(queries, start, end, keys);
+
+        MappingTable.ForwardCursor cursor = previous.forwardCursor();
+        for (int i = start; i < end; i++) {
+            int query = queries[i];
+            found[query] = cursor.find(mappings.getSourceLine(query), mappings.getSourceColumn(query));
+        }
+    }
+
+    /**
+     * Indexes of the names of the table in the rebased table, found on the first use. The names of the same pool are
+     * mapped by id.
+     */
+    private static class NameRemap {
+        private final MappingTable table;
+        private final MappingTable rebased;
+        // Index in the rebased table plus one, zero if it's not known yet.
+        private final int[] sourceFileNameIndexes;
+        private final int[] sourceSymbolNameIndexes;
+
+        NameRemap(MappingTable table, MappingTable rebased) {
+            this.table = table;
+            this.rebased = rebased;
+            this.sourceFileNameIndexes = new int[table.getSourceFileNames().size()];
+            this.sourceSymbolNameIndexes = new int[table.getSourceSymbolNames().size()];
+        }
+
+        int getSourceFileNameIndex(int index) {
+            if (sourceFileNameIndexes[index] == 0) {
+                List<String> names = table.getSourceFileNames();
+                if (names.get(index) == null) throw new RuntimeException("source file name required!");
+                int rebasedIndex = remapById(names, index, rebased.getSourceFileNames());
+                if (rebasedIndex == UNMAPPED) rebasedIndex = rebased.addSourceFileName(names.get(index));
+                sourceFileNameIndexes[index] = rebasedIndex + 1;
+            }
+            return sourceFileNameIndexes[index] - 1;
+        }
+
+        int getSourceSymbolNameIndex(int index) {
+            if (sourceSymbolNameIndexes[index] == 0) {
+                List<String> names = table.getSourceSymbolNames();
+                int rebasedIndex = remapById(names, index, rebased.getSourceSymbolNames());
+                if (rebasedIndex == UNMAPPED) rebasedIndex = rebased.addSourceSymbolName(names.get(index));
+                sourceSymbolNameIndexes[index] = rebasedIndex + 1;
+            }
+            return sourceSymbolNameIndexes[index] - 1;
+        }
+
+        /**
+         * Index of the name in the rebased names if both are names of the same pool, `UNMAPPED` otherwise.
+         */
+        private static int remapById(List<String> names, int index, List<String> rebasedNames) {
+            NamePool pool = PooledNames.getPool(names);
+            if (pool == null || pool != PooledNames.getPool(rebasedNames)) return UNMAPPED;
+            return ((PooledNames) rebasedNames).indexOfIdOrAdd(((PooledNames) names).getId(index));
+        }
+    }
+}
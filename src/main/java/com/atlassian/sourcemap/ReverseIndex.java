@@ -0,0 +1,134 @@
+package com.atlassian.sourcemap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of mappings by the source position, to find the generated positions of the source position.
+ *
+ * The segments of the table are grouped by the source file once, the segments of every source file are sorted by
+ * the source line and column on the first query for that file.
+ */
+class ReverseIndex {
+    private static final int UNMAPPED = MappingTable.UNMAPPED;
+
+    private final MappingTable mappings;
+    private final Map<String, Integer> fileIndexes = new HashMap<String, Integer>();
+    // Generated line of every segment.
+    private final int[] generatedLines;
+    // Indexes of segments grouped by source file, the group of the file `i` is from `fileStarts[i]` to
+    // `fileStarts[i + 1]`.
+    private final int[] segments;
+    private final int[] fileStarts;
+    private final boolean[] sortedFiles;
+    // Sort keys (source line and column) of segments.
+    private final long[] keys;
+
+    /**
+     * Rough estimate of the heap used by the index of the table, in bytes, it's known before the index is built.
+     */
+    static long estimateSize(MappingTable mappings) {
+        long fileCount = mappings.getSourceFileNames().size();
+        // Generated lines, keys and segments per segment, the file starts, flags and lookup entries per file.
+        return 16L * mappings.size() + 53L * fileCount;
+    }
+
+    ReverseIndex(MappingTable mappings) {
+        this.mappings = mappings;
+        int size = mappings.size();
+        int fileCount = mappings.getSourceFileNames().size();
+        generatedLines = new int[size];
+        keys = new long[size];
+        fileStarts = new int[fileCount + 1];
+        for (int line = 0; line < mappings.getLineCount(); line++) {
+            for (int i = mappings.getLineStart(line); i < mappings.getLineEnd(line); i++) {
+                generatedLines[i] = line;
+                int fileIndex = mappings.getSourceFileNameIndex(i);
+                if (fileIndex == UNMAPPED) continue;
+                fileStarts[fileIndex + 1]++;
+                keys[i] = InternalUtil.positionKey(mappings.getSourceLine(i), mappings.getSourceColumn(i));
+            }
+        }
+        for (int i = 0; i < fileCount; i++) fileStarts[i + 1] += fileStarts[i];
+
+        // Counting sort by the source file, the segments of every file stay in the generated order.
+        segments = new int[fileStarts[fileCount]];
+        int[] positions = new int[fileCount];
+        System.arraycopy(fileStarts, 0, positions, 0, fileCount);
+        for (int i = 0; i < size; i++) {
+            int fileIndex = mappings.getSourceFileNameIndex(i);
+            if (fileIndex != UNMAPPED) segments[positions[fileIndex]++] = i;
+        }
+        sortedFiles = new boolean[fileCount];
+        for (int i = 0; i < fileCount; i++) {
+            String sourceFileName = mappings.getSourceFileNames().get(i);
+            if (!fileIndexes.containsKey(sourceFileName)) fileIndexes.put(sourceFileName, i);
+        }
+    }
+
+    /**
+     * Mappings of the source position in the generated order, if there are no mappings for the exact position then
+     * the mappings of the closest following column on the same line are returned.
+     */
+    List<Mapping> getGeneratedPositions(String sourceFileName, int sourceLine, int sourceColumn) {
+        List<Mapping> result = new ArrayList<Mapping>();
+        Integer fileIndex = fileIndexes.get(sourceFileName);
+        if (fileIndex == null || sourceLine < 0) return result;
+        int start = search(fileIndex, InternalUtil.positionKey(sourceLine, Math.max(sourceColumn, 0)));
+        int end = fileStarts[fileIndex + 1];
+        if (start == end || mappings.getSourceLine(segments[start]) != sourceLine) return result;
+        long found = keys[segments[start]];
+        for (int i = start; i < end && keys[segments[i]] == found; i++) result.add(createMapping(segments[i]));
+        return result;
+    }
+
+    /**
+     * Mappings of all the columns of the source line, ordered by the source column.
+     */
+    List<Mapping> getGeneratedPositions(String sourceFileName, int sourceLine) {
+        List<Mapping> result = new ArrayList<Mapping>();
+        Integer fileIndex = fileIndexes.get(sourceFileName);
+        if (fileIndex == null || sourceLine < 0) return result;
+        int end = fileStarts[fileIndex + 1];
+        for (int i = search(fileIndex, InternalUtil.positionKey(sourceLine, Integer.MIN_VALUE)); i < end; i++) {
+            if (mappings.getSourceLine(segments[i]) != sourceLine) break;
+            result.add(createMapping(segments[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Sorts segments of all the files, after that the index isn't changed by the lookups anymore.
+     */
+    void sortAll() {
+        for (int i = 0; i < sortedFiles.length; i++) sort(i);
+    }
+
+    private void sort(int fileIndex) {
+        if (sortedFiles[fileIndex]) return;
+        InternalUtil.sortByKeys(segments, fileStarts[fileIndex], fileStarts[fileIndex + 1], keys);
+        sortedFiles[fileIndex] = true;
+    }
+
+    /**
+     * Position of the first segment of file with the key greater or equal to the given one.
+     */
+    private int search(int fileIndex, long key) {
+        sort(fileIndex);
+        int start = fileStarts[fileIndex];
+        int end = fileStarts[fileIndex + 1];
+        while (start < end) {
+            int mid = (start + end) >>> 1;
+            if (keys[segments[mid]] < key) start = mid + 1;
+            else end = mid;
+        }
+        return start;
+    }
+
+    private Mapping createMapping(int index) {
+        return mappings.createMapping(generatedLines[index], index);
+    }
+
+}
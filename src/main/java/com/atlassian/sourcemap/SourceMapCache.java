@@ -0,0 +1,179 @@
+package com.atlassian.sourcemap;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Cache of parsed source maps.
+ *
+ * The size of cache is limited by the estimated heap used by the source maps, the least recently used are evicted
+ * first. If the same source map is requested by multiple threads at once it's parsed only once, other threads wait
+ * for it. Cached source maps are frozen, so they could be read concurrently.
+ */
+public class SourceMapCache {
+    /**
+     * Loads content of source map, called only if the source map isn't in the cache.
+     */
+    public interface Loader {
+        String load();
+    }
+
+    private final long maxSize;
+    private long size = 0;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final Map<String, FutureTask<FrozenSourceMap>> loading = new HashMap<String, FutureTask<FrozenSourceMap>>();
+
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+
+    /**
+     * @param maxSize maximum estimated heap used by the cached source maps, in bytes.
+     */
+    public SourceMapCache(long maxSize) {
+        if (maxSize < 0) throw new RuntimeException("invalid cache size " + maxSize + "!");
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Parsed source map, the content hash is used as the key.
+     * @param sourceMap source map content.
+     */
+    public SourceMap get(final String sourceMap) {
+        return get(hash(sourceMap), new Loader() {
+            public String load() {
+                return sourceMap;
+            }
+        });
+    }
+
+    /**
+     * Parsed source map for the key, the source map is loaded and parsed if it's not in the cache.
+     * @param key key of the source map, for example its URL.
+     * @param loader loads the source map content.
+     */
+    public SourceMap get(String key, final Loader loader) {
+        FutureTask<FrozenSourceMap> task;
+        boolean isLoading = false;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hitCount++;
+                return entry.sourceMap;
+            }
+            task = loading.get(key);
+            if (task == null) {
+                missCount++;
+                isLoading = true;
+                task = new FutureTask<FrozenSourceMap>(new Callable<FrozenSourceMap>() {
+                    public FrozenSourceMap call() {
+                        return (FrozenSourceMap) new SourceMapImpl(loader.load()).freeze();
+                    }
+                });
+                loading.put(key, task);
+            }
+            // Waiting for the source map that is being loaded by another thread.
+            else hitCount++;
+        }
+
+        if (isLoading) {
+            task.run();
+            FrozenSourceMap sourceMap = null;
+            try {
+                sourceMap = InternalUtil.getResult(task);
+            } finally {
+                synchronized (this) {
+                    // The load has been invalidated while running if it's not the current one, it's not cached then.
+                    if (loading.get(key) == task) {
+                        loading.remove(key);
+                        if (sourceMap != null) put(key, sourceMap);
+                    }
+                }
+            }
+            return sourceMap;
+        }
+        return InternalUtil.getResult(task);
+    }
+
+    /**
+     * Removes the source map from the cache, the source map being loaded is dropped too, so it's loaded again on the
+     * next request.
+     */
+    public synchronized void invalidate(String key) {
+        loading.remove(key);
+        Entry entry = entries.remove(key);
+        if (entry != null) size -= entry.size;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Estimated heap used by the cached source maps, in bytes.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    private void put(String key, FrozenSourceMap sourceMap) {
+        Entry entry = new Entry(sourceMap, sourceMap.estimateSize());
+        // The source map bigger than the whole cache isn't cached, so it doesn't evict the other maps.
+        if (entry.size > maxSize) {
+            invalidate(key);
+            return;
+        }
+        Entry previous = entries.put(key, entry);
+        if (previous != null) size -= previous.size;
+        size += entry.size;
+
+        // Evicting the least recently used.
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            size -= iterator.next().size;
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    private static String hash(String content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(content.getBytes(Consumer.UTF8));
+            StringBuilder hex = new StringBuilder(2 * digest.length);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+                hex.append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) { throw new RuntimeException(e); }
+    }
+
+    private static class Entry {
+        final FrozenSourceMap sourceMap;
+        final long size;
+
+        Entry(FrozenSourceMap sourceMap, long size) {
+            this.sourceMap = sourceMap;
+            this.size = size;
+        }
+    }
+}
@@ -1,30 +1,178 @@
 package com.atlassian.sourcemap;
 
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Source map stored in memory as decoded mappings, it's possible to read and write it simultaneously. The mappings
+ * are encoded only when the source map is generated, the parsed source map keeps its encoded mappings until it's
+ * modified so they could be written or joined without encoding. Parsed index map is read section by section, it's
+ * flattened when it's generated or modified.
+ *
+ * Mappings could also be added through `MappingSink` by name ids, they are stored straight into the primitive arrays.
+ */
+public class SourceMapImpl implements SourceMap, MappingSink {
+    private MappingTable mappings;
+
+    // Lazily decoded mappings or sections of index map, it's used for reading until the mappings need to be decoded
+    // completely.
+    private MappingReader lazyMappings;
+
+    // Encoded mappings of the parsed source map, null if the source map has been modified. If neither the mappings
+    // nor the lazy mappings are set, the lazy mappings are created from them on the first lookup.
+    private EncodedMappings encoded;
+
+    // Index for the reverse lookups, built on the first lookup.
+    private ReverseIndex reverseIndex;
 
-import static com.atlassian.sourcemap.InternalUtil.join;
+    /**
+     * Parse source map.
+     * @param sourceMap source map content.
+     */
+    public SourceMapImpl(String sourceMap) {
+        this(new Consumer(sourceMap));
+    }
+
+    /**
+     * Parse source map.
+     * @param sourceMap source map content.
+     * @param lazy if true the mappings are decoded line by line on demand, it's faster when only few lookups
+     * needed, for example to resolve a stack trace.
+     */
+    public SourceMapImpl(String sourceMap, boolean lazy) {
+        this(new Consumer(sourceMap, lazy));
+    }
+
+    /**
+     * Parse source map, the mappings are split into chunks decoded in parallel, it's faster for big source maps.
+     * @param sourceMap source map content.
+     * @param executor executor to decode the chunks of mappings.
+     */
+    public SourceMapImpl(String sourceMap, ExecutorService executor) {
+        this(new Consumer(sourceMap, executor));
+    }
 
-public class SourceMapImpl implements SourceMap {
-    private State state;
+    /**
+     * Parse source map, the source file and symbol names are interned in the pool. The names added later are
+     * interned too.
+     * @param sourceMap source map content.
+     * @param pool pool shared by source maps.
+     */
+    public SourceMapImpl(String sourceMap, NamePool pool) {
+        this(new Consumer(sourceMap, pool));
+    }
 
     /**
      * Parse source map.
+     * @param sourceMap UTF-8 encoded source map content.
+     */
+    public SourceMapImpl(byte[] sourceMap) {
+        this(new Consumer(sourceMap));
+    }
+
+    /**
+     * Parse source map file, the file is memory mapped while it's parsed and the mappings are decoded straight from
+     * its bytes.
+     * @param sourceMap UTF-8 encoded source map file.
+     */
+    public SourceMapImpl(File sourceMap) {
+        this(new Consumer(sourceMap));
+    }
+
+    /**
+     * Parse source map, the stream is read till the end but not closed.
+     * @param sourceMap UTF-8 encoded source map content.
+     */
+    public SourceMapImpl(InputStream sourceMap) {
+        this(new Consumer(sourceMap));
+    }
+
+    /**
+     * Parse source map, the reader is read till the end but not closed.
      * @param sourceMap source map content.
      */
-    public SourceMapImpl(String sourceMap) {
-        this.state = new Read(this, new Consumer(sourceMap));
+    public SourceMapImpl(Reader sourceMap) {
+        this(new Consumer(sourceMap));
+    }
+
+    private SourceMapImpl(Consumer consumer) {
+        this.lazyMappings = consumer.getLazyMappings();
+        if (lazyMappings == null) this.mappings = consumer.getMappingTable();
+        this.encoded = consumer.getEncodedMappings();
+    }
+
+    /**
+     * Source map with already encoded mappings, they are decoded lazily.
+     */
+    SourceMapImpl(EncodedMappings encoded) {
+        this.encoded = encoded;
+    }
+
+    /**
+     * 1 to 1 source map, the mappings are calculated until it's modified.
+     */
+    SourceMapImpl(IdentityMappings identity) {
+        this.lazyMappings = identity;
+        this.encoded = identity.toEncodedMappings();
     }
 
     /**
      * Create empty source map.
      */
     public SourceMapImpl() {
-       this.state = new None(this);
+        this.mappings = new MappingTable();
+    }
+
+    /**
+     * Create empty source map, the source file and symbol names are interned in the pool.
+     * @param pool pool shared by source maps.
+     */
+    public SourceMapImpl(NamePool pool) {
+        this.mappings = new MappingTable(pool);
+    }
+
+    /**
+     * Source map of the decoded mappings, the table is used as it is.
+     */
+    SourceMapImpl(MappingTable mappings) {
+        this.mappings = mappings;
     }
 
+    /**
+     * Create copy of source map with offset.
+     */
     protected SourceMapImpl(SourceMap sourceMap, int offset) {
-        this.state = new DeferredOffset(this, sourceMap, offset);
+        EncodedMappings sourceEncoded = null;
+        if (sourceMap instanceof SourceMapImpl) sourceEncoded = ((SourceMapImpl) sourceMap).getEncodedMappings();
+        if (sourceEncoded != null) {
+            // Unmodified parsed map, the offset is just the empty lines prepended to the encoded mappings.
+            this.encoded = sourceEncoded.withLineOffset(offset);
+        } else if (sourceMap instanceof SourceMapImpl) {
+            this.mappings = ((SourceMapImpl) sourceMap).getMappingTable().copyWithLineOffset(offset);
+        } else {
+            if (offset < 0) throw new RuntimeException("invalid offset " + offset + "!");
+            this.mappings = new MappingTable();
+            final int finalOffset = offset;
+            sourceMap.eachMapping(new EachMappingCallback() {
+                public void apply(Mapping mapping) {
+                    addMapping(
+                        finalOffset + mapping.getGeneratedLine(),
+                        mapping.getGeneratedColumn(),
+                        mapping.getSourceLine(),
+                        mapping.getSourceColumn(),
+                        mapping.getSourceFileName(),
+                        mapping.getSourceSymbolName()
+                    );
+                }
+            });
+        }
     }
 
     @Override
@@ -34,288 +182,198 @@ public class SourceMapImpl implements SourceMap {
 
     @Override
     public void addMapping(int generatedLine, int generatedColumn, int sourceLine, int sourceColumn, String sourceFileName, String sourceSymbolName) {
-        addMapping(new MappingImpl(generatedLine, generatedColumn, sourceLine, sourceColumn, sourceFileName, sourceSymbolName));
+        MappingTable table = getMappingTable();
+        encoded = null;
+        reverseIndex = null;
+        table.addMapping(generatedLine, generatedColumn, sourceLine, sourceColumn, sourceFileName, sourceSymbolName);
     }
 
     @Override
     public void addMapping(Mapping mapping) {
-        state.addMapping(mapping);
+        addMapping(mapping.getGeneratedLine(), mapping.getGeneratedColumn(), mapping.getSourceLine(),
+            mapping.getSourceColumn(), mapping.getSourceFileName(), mapping.getSourceSymbolName());
     }
 
     @Override
-    public Mapping getMapping(int lineNumber, int column) {
-        return state.getMapping(lineNumber, column);
+    public int addSourceFileName(String sourceFileName) {
+        if (sourceFileName == null) throw new RuntimeException("source file name required!");
+        MappingTable table = getMappingTable();
+        encoded = null;
+        return table.addSourceFileName(sourceFileName);
     }
 
     @Override
-    public String generate() {
-        return state.generate();
+    public int addSourceSymbolName(String sourceSymbolName) {
+        if (sourceSymbolName == null) throw new RuntimeException("symbol name required!");
+        MappingTable table = getMappingTable();
+        encoded = null;
+        return table.addSourceSymbolName(sourceSymbolName);
     }
 
     @Override
-    public String generateForHumans() {
-        Consumer consumer = new Consumer(generate());
-        final StringBuilder buff = new StringBuilder();
-        buff.append("{\n");
-        buff.append("  sources  : [\n    " + join(consumer.getSourceFileNames(), "\n    ") + "\n  ]\n");
-        buff.append("  mappings : [\n    ");
-        final int[] previousLine = new int[]{-1};
-        consumer.eachMapping(new EachMappingCallback() {
-            public void apply(Mapping mapping) {
-                if ((mapping.getGeneratedLine() != previousLine[0]) && (previousLine[0] != -1)) buff.append("\n    ");
-                else if (previousLine[0] != -1) buff.append(", ");
-                previousLine[0] = mapping.getGeneratedLine();
-
-                String shortName = mapping.getSourceFileName().replaceAll(".*/", "");
-                buff.append("(" + mapping.getGeneratedLine() + ":" + mapping.getGeneratedColumn() + " -> "
-                    + shortName + ":" + mapping.getSourceLine() + ":" + mapping.getSourceColumn() + ")");
-            }
-        });
-        buff.append("\n  ]\n}");
-        return buff.toString();
+    public void addSegment(int generatedLine, int generatedColumn, int sourceFileNameId, int sourceLine,
+                           int sourceColumn, int sourceSymbolNameId) {
+        MappingTable table = getMappingTable();
+        encoded = null;
+        reverseIndex = null;
+        if (sourceFileNameId < 0 || sourceFileNameId >= table.getSourceFileNames().size())
+            throw new RuntimeException("invalid name index " + sourceFileNameId + "!");
+        if (sourceSymbolNameId != NO_NAME
+            && (sourceSymbolNameId < 0 || sourceSymbolNameId >= table.getSourceSymbolNames().size()))
+            throw new RuntimeException("invalid name index " + sourceSymbolNameId + "!");
+        table.add(generatedLine, generatedColumn, sourceFileNameId, sourceLine, sourceColumn, sourceSymbolNameId);
     }
 
     @Override
-    public List<String> getSourceFileNames() {
-        return state.getSourceFileNames();
+    public void addUnmappedSegment(int generatedLine, int generatedColumn) {
+        MappingTable table = getMappingTable();
+        encoded = null;
+        reverseIndex = null;
+        table.add(generatedLine, generatedColumn, MappingTable.UNMAPPED, MappingTable.UNMAPPED, MappingTable.UNMAPPED,
+            MappingTable.UNMAPPED);
     }
 
     @Override
-    public void eachMapping(EachMappingCallback callback) {
-        state.eachMapping(callback);
+    public Mapping getMapping(int lineNumber, int column) {
+        if (getLazyMappings() != null) return lazyMappings.getMapping(lineNumber, column);
+        return mappings.getMapping(lineNumber, column);
     }
 
     /**
-     * Due to the poor current implementation it's possible to either write or read the source map but not
-     * read and write it simultaneously.
-     *
-     * In order to simplify working with source map its API looks as if it allows simultaneous read and write
-     * but it does it by serializing / deserializing the source map to the string.
-     *
-     * It's implemented as a state machine, switching into Read, Write or DeferredOffset state.
+     * Get mappings of the position in source file, in order of generated positions. If the exact column isn't mapped
+     * the mappings of the next mapped column on the same line are returned.
      */
-    private static interface State {
-        void addMapping(Mapping mapping);
-
-        public String generate();
-
-        public void eachMapping(EachMappingCallback callback);
-
-        public Mapping getMapping(int lineNumber, int column);
-
-        public List<String> getSourceFileNames();
+    public List<Mapping> getGeneratedPositions(String sourceFileName, int sourceLine, int sourceColumn) {
+        return getReverseIndex().getGeneratedPositions(sourceFileName, sourceLine, sourceColumn);
     }
 
     /**
-     * Initial state, does nothing except of switching into another states.
+     * Get mappings of all the columns of the line in source file, in order of source columns.
      */
-    private static class None implements State {
-        private final SourceMapImpl thisSourceMap;
-
-        public None(SourceMapImpl thisSourceMap) {
-            this.thisSourceMap = thisSourceMap;
-        }
-
-        @Override
-        public void addMapping(Mapping mapping) {
-            switchIntoWriteState().addMapping(mapping);
-        }
-
-        @Override
-        public String generate() {
-            return switchIntoReadState().generate();
-        }
-
-        @Override
-        public void eachMapping(EachMappingCallback callback) {
-            switchIntoReadState().eachMapping(callback);
-        }
-
-        @Override
-        public Mapping getMapping(int lineNumber, int column) {
-            return switchIntoReadState().getMapping(lineNumber, column);
-        }
-
-        @Override
-        public List<String> getSourceFileNames() {
-            return switchIntoReadState().getSourceFileNames();
-        }
+    public List<Mapping> getGeneratedPositions(String sourceFileName, int sourceLine) {
+        return getReverseIndex().getGeneratedPositions(sourceFileName, sourceLine);
+    }
 
-        private State switchIntoReadState() {
-            this.thisSourceMap.state = new Read(thisSourceMap, new Consumer(
-                "{\n" +
-                "  \"version\":3,\n" +
-                "  \"sources\":[],\n" +
-                "  \"names\":[],\n" +
-                "  \"mappings\":\"\"\n" +
-                "}"
-            ));
-            return this.thisSourceMap.state;
-        }
+    private ReverseIndex getReverseIndex() {
+        if (reverseIndex == null) reverseIndex = new ReverseIndex(getMappingTable());
+        return reverseIndex;
+    }
 
-        private State switchIntoWriteState() {
-            this.thisSourceMap.state = new Write(thisSourceMap);
-            return this.thisSourceMap.state;
-        }
+    @Override
+    public String generate() {
+        return getGenerator().generate();
     }
 
     /**
-     * State of reading source map.
+     * Generate source map, the mappings of big source map are encoded in parallel. The result is the same as of
+     * `generate()`.
+     * @param executor executor to encode the chunks of mappings.
      */
-    private static class Read implements State {
-        private Consumer consumer;
-        private SourceMapImpl thisSourceMap;
-
-        public Read(SourceMapImpl thisSourceMap, Consumer consumer) {
-            this.thisSourceMap = thisSourceMap;
-            this.consumer = consumer;
-        }
-
-        @Override
-        public void eachMapping(final EachMappingCallback callback) {
-            consumer.eachMapping(callback);
-        }
-
-        @Override
-        public Mapping getMapping(int lineNumber, int column) {
-            return consumer.getMapping(lineNumber, column);
-        }
-
-        @Override
-        public List<String> getSourceFileNames() {
-            return new ArrayList<String>(consumer.getSourceFileNames());
-        }
-
-        @Override
-        public void addMapping(Mapping mapping) {
-            throw new RuntimeException("operation getSourceFileNames not supported in " + this.getClass().getSimpleName() + " state!");
-        }
-
-        @Override
-        public String generate() {
-            final Generator generator = new Generator();
-            eachMapping(new EachMappingCallback()
-            {
-                public void apply(Mapping mapping)
-                {
-                    generator.addMapping(mapping);
-                }
-            });
-            return generator.generate();
-        }
+    public String generate(ExecutorService executor) {
+        Generator generator = getGenerator();
+        generator.setExecutor(executor);
+        return generator.generate();
     }
 
     /**
-     * State of writing source map.
+     * Generate source map JSON and write it to the writer, the writer is flushed but not closed.
      */
-    private static class Write implements State {
-        private SourceMapImpl thisSourceMap;
-        private Generator generator;
-        private int lastGeneratedLine = 0;
-        private int lastGeneratedColumn = 0;
-
-        public Write(SourceMapImpl thisSourceMap) {
-            this.thisSourceMap = thisSourceMap;
-            this.generator = new Generator();
-        }
-
-        @Override
-        public void addMapping(Mapping mapping) {
-            // In current implementation of generator it's required that lines where added in proper order,
-            // checking for it.
-            if (lastGeneratedLine > mapping.getGeneratedLine())
-                throw new RuntimeException("mappings should be added in a proper order!");
-            else if ((lastGeneratedLine == mapping.getGeneratedLine()) && (lastGeneratedColumn > mapping.getGeneratedColumn()))
-                throw new RuntimeException("mappings should be added in a proper order!");
-            lastGeneratedLine = mapping.getGeneratedLine();
-            lastGeneratedColumn = mapping.getGeneratedColumn();
-
-            generator.addMapping(mapping);
-        }
-
-        @Override
-        public String generate() {
-            return generator.generate();
-        }
+    public void generate(Writer out) {
+        getGenerator().generate(AsciiOutput.to(out));
+    }
 
-        @Override
-        public void eachMapping(final EachMappingCallback callback) {
-            performanceInefficientSwitchIntoReadState().eachMapping(callback);
-        }
+    /**
+     * Generate source map JSON and write it to the stream as ASCII (so it's also valid UTF-8), the stream is flushed
+     * but not closed.
+     */
+    public void generate(OutputStream out) {
+        getGenerator().generate(AsciiOutput.to(out));
+    }
 
-        @Override
-        public Mapping getMapping(int lineNumber, int column) {
-            return performanceInefficientSwitchIntoReadState().getMapping(lineNumber, column);
-        }
+    /**
+     * Generate source map JSON and write it to the channel as ASCII (so it's also valid UTF-8), the channel isn't
+     * closed.
+     */
+    public void generate(WritableByteChannel out) {
+        getGenerator().generate(AsciiOutput.to(out));
+    }
 
-        @Override
-        public List<String> getSourceFileNames() {
-            return performanceInefficientSwitchIntoReadState().getSourceFileNames();
-        }
+    /**
+     * Writes source map without any buffering or flushing, to embed it into another output.
+     */
+    void generate(Appendable out) {
+        getGenerator().generate(out);
+    }
 
-        // Switching into read mode, no writes would be allowed after this call, it's also
-        // not efficient because it requires serialization of source map data to and from string.
-        private Read performanceInefficientSwitchIntoReadState() {
-            Read read = new Read(thisSourceMap, new Consumer(generate()));
-            thisSourceMap.state = read;
-            return read;
-        }
+    // Unmodified mappings are written as they have been parsed.
+    private Generator getGenerator() {
+        if (encoded != null) return new Generator(encoded);
+        return new Generator(getMappingTable());
     }
 
-    // The actual offset calculation is deferred in order to improve the performance in case of multiple
-    // offset transformations.
-    private static class DeferredOffset implements State {
-        private final SourceMap sourceMapWithoutOffset;
-        private int offset = 0;
-        private SourceMapImpl thisSourceMap;
+    @Override
+    public String generateForHumans() {
+        return InternalUtil.generateForHumans(this);
+    }
 
-        public DeferredOffset(SourceMapImpl thisSourceMap, SourceMap sourceMapWithoutOffset, int offset) {
-            this.thisSourceMap = thisSourceMap;
-            this.sourceMapWithoutOffset = sourceMapWithoutOffset;
-            this.offset = offset;
-        }
+    @Override
+    public List<String> getSourceFileNames() {
+        if (getLazyMappings() != null) return new ArrayList<String>(lazyMappings.getSourceFileNames());
+        return new ArrayList<String>(mappings.getSourceFileNames());
+    }
 
-        @Override
-        public void addMapping(Mapping mapping) {
-            throw new RuntimeException("operation addMapping not supported in " + this.getClass().getSimpleName() + " state!");
-        }
+    @Override
+    public void eachMapping(EachMappingCallback callback) {
+        if (getLazyMappings() != null) lazyMappings.eachMapping(callback);
+        else mappings.eachMapping(callback);
+    }
 
-        @Override
-        public String generate() {
-            return calculateOffsetAndSwitchIntoWriteState().generate();
-        }
+    /**
+     * Read-only copy of the source map that is safe for concurrent reads, its mappings are decoded completely and it's
+     * streamed on every `generate` call.
+     */
+    public SourceMap freeze() {
+        MappingTable frozenMappings = getMappingTable().copyWithLineOffset(0);
+        EncodedMappings frozenEncoded = null;
+        if (encoded != null) frozenEncoded = encoded.withNames(frozenMappings.getSourceFileNames(),
+            frozenMappings.getSourceSymbolNames());
+        return new FrozenSourceMap(frozenMappings, frozenEncoded);
+    }
 
-        @Override
-        public void eachMapping(EachMappingCallback callback) {
-            calculateOffsetAndSwitchIntoWriteState().eachMapping(callback);
+    /**
+     * Decoded mappings, if the source map has been parsed lazily the mappings are decoded completely.
+     */
+    MappingTable getMappingTable() {
+        if (getLazyMappings() != null) {
+            mappings = lazyMappings.toMappingTable();
+            lazyMappings = null;
         }
+        return mappings;
+    }
 
-        @Override
-        public Mapping getMapping(int lineNumber, int column) {
-            return calculateOffsetAndSwitchIntoWriteState().getMapping(lineNumber, column);
+    /**
+     * Lazily decoded mappings, created from the encoded mappings when they are needed for the first time. Null if the
+     * mappings have been decoded completely.
+     */
+    private MappingReader getLazyMappings() {
+        if (lazyMappings == null && mappings == null) {
+            lazyMappings = new LazyMappings(encoded.getMappings().toString(), encoded.getSourceFileNames(),
+                encoded.getSourceSymbolNames());
         }
+        return lazyMappings;
+    }
 
-        @Override
-        public List<String> getSourceFileNames() {
-            return calculateOffsetAndSwitchIntoWriteState().getSourceFileNames();
-        }
+    /**
+     * Mappings of 1 to 1 source map, null if it's not 1 to 1 source map or it has been modified.
+     */
+    IdentityMappings getIdentityMappings() {
+        return lazyMappings instanceof IdentityMappings ? (IdentityMappings) lazyMappings : null;
+    }
 
-        private State calculateOffsetAndSwitchIntoWriteState() {
-            final Write write = new Write(thisSourceMap);
-            sourceMapWithoutOffset.eachMapping(new EachMappingCallback() {
-                public void apply(Mapping mapping) {
-                    write.addMapping(new MappingImpl(
-                        offset + mapping.getGeneratedLine(),
-                        mapping.getGeneratedColumn(),
-                        mapping.getSourceLine(),
-                        mapping.getSourceColumn(),
-                        mapping.getSourceFileName(),
-                        mapping.getSourceSymbolName()
-                    ));
-                }
-            });
-            thisSourceMap.state = write;
-            return write;
-        }
+    /**
+     * Mappings as they have been parsed, null if the source map has been modified.
+     */
+    EncodedMappings getEncodedMappings() {
+        return encoded;
     }
-}
\ No newline at end of file
+}
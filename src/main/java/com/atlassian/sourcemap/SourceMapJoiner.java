@@ -1,5 +1,8 @@
 package com.atlassian.sourcemap;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -23,6 +26,22 @@ public class SourceMapJoiner
 
     List<SourceMapWithOffset> sourceMaps = new ArrayList<SourceMapWithOffset>();
 
+    // Pool to intern the joined names in, could be null.
+    private final NamePool pool;
+
+    public SourceMapJoiner()
+    {
+        this(null);
+    }
+
+    /**
+     * Joiner interning the joined names in the pool, the names of the source maps of the same pool are merged by id.
+     */
+    public SourceMapJoiner(NamePool pool)
+    {
+        this.pool = pool;
+    }
+
     /**
      * Create joined source map by joining multiple source maps, each of it additionally could have the offset.
      * @param sourceMap source map to add.
@@ -35,12 +54,13 @@ public class SourceMapJoiner
     }
 
     /**
-     * Joins added source maps.
+     * Joins added source maps. Mappings of the parsed source maps are copied without decoding when it's possible.
      * @return joined source map.
      */
     public SourceMap join()
     {
-        final SourceMap joinedMap = new SourceMapImpl();
+        StringBuilder joinedMappings = new StringBuilder();
+        EncodedMappingsBuilder builder = new EncodedMappingsBuilder(joinedMappings, pool);
         int lineOffset = 0;
         for (SourceMapWithOffset sourceMapWithOffset : sourceMaps)
         {
@@ -48,29 +68,80 @@ public class SourceMapJoiner
             int linesCount = sourceMapWithOffset.linesCount;
             SourceMap sourceMap = sourceMapWithOffset.sourceMap;
             lineOffset += offset;
-            final int finalLineOffset = lineOffset;
             // If source map is equal to null we skipping it, but adding its linesCount to next offset.
-            if (sourceMap != null)
-            {
-                sourceMap.eachMapping(new SourceMap.EachMappingCallback()
-                {
-                    public void apply(Mapping mapping)
-                    {
-                        joinedMap.addMapping(
-                            finalLineOffset + mapping.getGeneratedLine(),
-                            mapping.getGeneratedColumn(),
-                            mapping.getSourceLine(),
-                            mapping.getSourceColumn(),
-                            mapping.getSourceFileName(),
-                            mapping.getSourceSymbolName()
-                        );
-                    }
-                });
-            }
+            if (sourceMap != null) builder.append(sourceMap, lineOffset);
 
             // Lines count already included before and after offsets.
             lineOffset += linesCount - offset;
         }
-        return joinedMap;
+        builder.close();
+        return new SourceMapImpl(new EncodedMappings(builder.getSourceFileNames(), builder.getSourceSymbolNames(),
+            joinedMappings.toString()));
+    }
+
+    /**
+     * Joins added source maps into index map, every source map is embedded as a section unchanged at its line
+     * offset, the mappings aren't touched at all.
+     * @return index map content.
+     */
+    public String joinToIndexMap()
+    {
+        StringBuilder out = new StringBuilder();
+        joinToIndexMap(out);
+        return out.toString();
+    }
+
+    /**
+     * Joins added source maps into index map and writes it, the writer is flushed but not closed.
+     */
+    public void joinToIndexMap(Writer out)
+    {
+        joinToIndexMap(AsciiOutput.to(out));
+    }
+
+    /**
+     * Joins added source maps into index map and writes it as UTF-8, the stream is flushed but not closed.
+     */
+    public void joinToIndexMap(OutputStream out)
+    {
+        joinToIndexMap(AsciiOutput.to(out));
+    }
+
+    private void joinToIndexMap(AsciiOutput out)
+    {
+        joinToIndexMap((Appendable) out);
+        try {
+            out.flush();
+        } catch (IOException e) { throw new RuntimeException(e); }
+    }
+
+    private void joinToIndexMap(Appendable out)
+    {
+        try {
+            out.append("{\n");
+            out.append("  \"version\":3,\n");
+            out.append("  \"sections\":[");
+            boolean isFirst = true;
+            int lineOffset = 0;
+            for (SourceMapWithOffset sourceMapWithOffset : sourceMaps)
+            {
+                lineOffset += sourceMapWithOffset.offset;
+                SourceMap sourceMap = sourceMapWithOffset.sourceMap;
+                // Null source map has no section, but its lines are still counted.
+                if (sourceMap != null)
+                {
+                    if (!isFirst) out.append(",");
+                    isFirst = false;
+                    out.append("\n    {\"offset\":{\"line\":");
+                    out.append(String.valueOf(lineOffset));
+                    out.append(",\"column\":0},\"map\":");
+                    if (sourceMap instanceof SourceMapImpl) ((SourceMapImpl) sourceMap).generate(out);
+                    else out.append(sourceMap.generate());
+                    out.append("}");
+                }
+                lineOffset += sourceMapWithOffset.linesCount - sourceMapWithOffset.offset;
+            }
+            out.append("\n  ]\n}");
+        } catch (IOException e) { throw new RuntimeException(e); }
     }
 }
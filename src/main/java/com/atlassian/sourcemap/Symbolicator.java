@@ -0,0 +1,277 @@
+package com.atlassian.sourcemap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Resolves batches of generated positions (stack frames) to the original positions.
+ *
+ * Frames are grouped by source map, every source map is requested once per batch and its frames are looked up in
+ * order of position, so the same lines are touched together and the repeated positions are looked up once. The groups
+ * are resolved in parallel if the executor is given.
+ */
+public class Symbolicator {
+    // Chrome: `    at functionName (http://host/a.js:10:15)` or `    at http://host/a.js:10:15`, optionally with
+    // `async ` before the function name or location.
+    private static final Pattern CHROME_FRAME =
+        Pattern.compile("^\\s*at (?:async )?(?:.*? \\()?(.+?):(\\d+):(\\d+)\\)?\\s*$");
+    // Firefox and Safari: `functionName@http://host/a.js:10:15`.
+    private static final Pattern FIREFOX_FRAME = Pattern.compile("^[^@]*@(.+?):(\\d+):(\\d+)\\s*$");
+    // Safari anonymous: `http://host/a.js:10:15`.
+    private static final Pattern LOCATION_FRAME = Pattern.compile("^\\s*([^\\s@()]+?):(\\d+):(\\d+)\\s*$");
+    private static final Pattern[] FRAMES = {CHROME_FRAME, FIREFOX_FRAME, LOCATION_FRAME};
+
+    private static final Comparator<Frame> POSITION_ORDER = new Comparator<Frame>() {
+        public int compare(Frame a, Frame b) {
+            if (a.line != b.line) return a.line < b.line ? -1 : 1;
+            return a.column < b.column ? -1 : (a.column == b.column ? 0 : 1);
+        }
+    };
+
+    /**
+     * Provides source maps by the key used in frames, usually it's URL of the generated file.
+     */
+    public interface SourceMapProvider {
+        /**
+         * @return source map or null if there's no source map for the key.
+         */
+        SourceMap get(String key);
+    }
+
+    /**
+     * Generated position to resolve, lines and columns are zero based as in `SourceMap`. Frames aren't changed by
+     * resolving, the result has its own resolved frames.
+     */
+    public static class Frame {
+        private final String key;
+        private final int line;
+        private final int column;
+        private final Mapping mapping;
+
+        public Frame(String key, int line, int column) {
+            this(key, line, column, null);
+        }
+
+        private Frame(String key, int line, int column, Mapping mapping) {
+            this.key = key;
+            this.line = line;
+            this.column = column;
+            this.mapping = mapping;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public int getLine() {
+            return line;
+        }
+
+        public int getColumn() {
+            return column;
+        }
+
+        /**
+         * Original position, null if it can't be resolved or the frame isn't resolved yet.
+         */
+        public Mapping getMapping() {
+            return mapping;
+        }
+    }
+
+    /**
+     * Resolved batch.
+     */
+    public static class Result {
+        private final List<Frame> frames;
+        private final String stackTrace;
+        private final long elapsedNanos;
+
+        Result(List<Frame> frames, String stackTrace, long elapsedNanos) {
+            this.frames = frames;
+            this.stackTrace = stackTrace;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * Resolved frames in the order they were given.
+         */
+        public List<Frame> getFrames() {
+            return frames;
+        }
+
+        /**
+         * Stack trace with the frames rewritten to the original positions, null if frames were given.
+         */
+        public String getStackTrace() {
+            return stackTrace;
+        }
+
+        /**
+         * Time spent on the batch.
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+    }
+
+    private final SourceMapProvider provider;
+    private final ExecutorService executor;
+
+    /**
+     * Symbolicator resolving frames in the calling thread.
+     */
+    public Symbolicator(SourceMapProvider provider) {
+        this(provider, null);
+    }
+
+    /**
+     * @param executor executor to resolve frames of different source maps in parallel, source maps should support
+     * concurrent reading.
+     */
+    public Symbolicator(SourceMapProvider provider, ExecutorService executor) {
+        this.provider = provider;
+        this.executor = executor;
+    }
+
+    /**
+     * Resolves the frames.
+     */
+    public Result symbolicate(List<Frame> frames) {
+        long start = System.nanoTime();
+        List<Frame> resolved = resolve(frames);
+        return new Result(resolved, null, System.nanoTime() - start);
+    }
+
+    /**
+     * Resolves the frames of Chrome, Firefox or Safari stack trace and rewrites them to the original positions, the
+     * lines that aren't frames or can't be resolved are left as they are. Lines and columns in stack trace are one
+     * based.
+     */
+    public Result symbolicate(String stackTrace) {
+        long start = System.nanoTime();
+        String[] lines = stackTrace.split("\n", -1);
+        Matcher[] matchers = new Matcher[lines.length];
+        // Index of the frame of every line, -1 if the line isn't a frame.
+        int[] lineFrames = new int[lines.length];
+        List<Frame> frames = new ArrayList<Frame>();
+        for (int i = 0; i < lines.length; i++) {
+            lineFrames[i] = -1;
+            Matcher matcher = matchFrame(lines[i]);
+            if (matcher == null) continue;
+            int line;
+            int column;
+            try {
+                line = Integer.parseInt(matcher.group(2)) - 1;
+                column = Integer.parseInt(matcher.group(3)) - 1;
+            } catch (NumberFormatException e) {
+                // Out of range position, the line is left as it is.
+                continue;
+            }
+            matchers[i] = matcher;
+            lineFrames[i] = frames.size();
+            frames.add(new Frame(matcher.group(1), line, column));
+        }
+        List<Frame> resolved = resolve(frames);
+
+        StringBuilder result = new StringBuilder(stackTrace.length());
+        for (int i = 0; i < lines.length; i++) {
+            if (i > 0) result.append('\n');
+            Mapping mapping = lineFrames[i] < 0 ? null : resolved.get(lineFrames[i]).getMapping();
+            if (mapping == null) {
+                result.append(lines[i]);
+                continue;
+            }
+            // Replacing the location, everything else stays as it is.
+            Matcher matcher = matchers[i];
+            result.append(lines[i], 0, matcher.start(1));
+            result.append(mapping.getSourceFileName()).append(':').append(mapping.getSourceLine() + 1).append(':')
+                .append(mapping.getSourceColumn() + 1);
+            result.append(lines[i], matcher.end(3), lines[i].length());
+        }
+        return new Result(resolved, result.toString(), System.nanoTime() - start);
+    }
+
+    /**
+     * Matcher of the frame location, null if the line isn't a frame.
+     */
+    private static Matcher matchFrame(String line) {
+        for (Pattern pattern : FRAMES) {
+            Matcher matcher = pattern.matcher(line);
+            if (matcher.matches()) return matcher;
+        }
+        return null;
+    }
+
+    /**
+     * Resolved copies of the frames, in the same order.
+     */
+    private List<Frame> resolve(List<Frame> frames) {
+        final Frame[] input = frames.toArray(new Frame[frames.size()]);
+        // Every group writes only the mappings of its own frames.
+        final Mapping[] mappings = new Mapping[input.length];
+        Map<String, List<Integer>> groups = new LinkedHashMap<String, List<Integer>>();
+        for (int i = 0; i < input.length; i++) {
+            List<Integer> group = groups.get(input[i].key);
+            if (group == null) {
+                group = new ArrayList<Integer>();
+                groups.put(input[i].key, group);
+            }
+            group.add(i);
+        }
+
+        final List<Map.Entry<String, List<Integer>>> entries =
+            new ArrayList<Map.Entry<String, List<Integer>>>(groups.entrySet());
+        if (executor == null) {
+            for (Map.Entry<String, List<Integer>> group : entries) {
+                resolve(group.getKey(), input, group.getValue(), mappings);
+            }
+        } else {
+            // The calling thread resolves groups too, so it doesn't deadlock on the busy executor.
+            InternalUtil.runInParallel(executor, entries.size(), new InternalUtil.IndexedTask() {
+                public void run(int index) {
+                    resolve(entries.get(index).getKey(), input, entries.get(index).getValue(), mappings);
+                }
+            });
+        }
+
+        List<Frame> resolved = new ArrayList<Frame>(input.length);
+        for (int i = 0; i < input.length; i++) {
+            resolved.add(new Frame(input[i].key, input[i].line, input[i].column, mappings[i]));
+        }
+        return Collections.unmodifiableList(resolved);
+    }
+
+    /**
+     * Resolves frames of one source map in order of position.
+     * @param group indexes of the frames of the source map.
+     */
+    private void resolve(String key, final Frame[] frames, List<Integer> group, Mapping[] mappings) {
+        SourceMap sourceMap = provider.get(key);
+        if (sourceMap == null) return;
+        Integer[] sorted = group.toArray(new Integer[group.size()]);
+        Arrays.sort(sorted, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return POSITION_ORDER.compare(frames[a], frames[b]);
+            }
+        });
+        int previous = -1;
+        for (int index : sorted) {
+            Frame frame = frames[index];
+            if (frame.line < 0 || frame.column < 0) continue;
+            if (previous >= 0 && POSITION_ORDER.compare(frames[previous], frame) == 0) {
+                mappings[index] = mappings[previous];
+            }
+            else mappings[index] = sourceMap.getMapping(frame.line, frame.column);
+            previous = index;
+        }
+    }
+}
@@ -2,6 +2,12 @@ package com.atlassian.sourcemap;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Helpers for converting source maps.
@@ -26,35 +32,36 @@ public class Util
      * Generates 1 to 1 mapping, it's needed in order to create source map for batch. When source maps of individual
      * resources joined into the batch source map - if some of resources doesn't have source map then the 1 to 1 source
      * map would be generated for it.
+     *
+     * Only the source url and the number of lines are stored, the mappings are calculated when they are needed and
+     * the joiner and rebase handle it without going through the mappings one by one.
      * @param source source content.
      * @param sourceUrl source url.
      * @return 1 to 1 source map.
      */
     public static SourceMap create1to1SourceMap(CharSequence source, String sourceUrl) {
-        SourceMap map = new SourceMapImpl();
-        int line = 0;
-        map.addMapping(line, 0, line, 0, sourceUrl);
-
-        for (int i = 0; i < source.length(); i++ ) {
-            if (source.charAt(i) == '\n') {
-                line += 1;
-                map.addMapping(line, 0, line, 0, sourceUrl);
-            }
-        }
-        return map;
+        return create1to1SourceMap(sourceUrl, countLines(source));
     }
 
     /**
-     * Helper to count newlines in content.
+     * Generates 1 to 1 mapping for the content with the given number of lines.
+     * @param sourceUrl source url.
+     * @param linesCount number of lines of the content, as counted by `countLines`.
+     * @return 1 to 1 source map.
+     */
+    public static SourceMap create1to1SourceMap(String sourceUrl, int linesCount) {
+        return new SourceMapImpl(new IdentityMappings(sourceUrl, linesCount));
+    }
+
+    /**
+     * Helper to count newlines in content, the stream is read in blocks till the end but not closed.
      */
     public static int countLines(InputStream stream) {
         try {
-            int c = stream.read();
+            byte[] buffer = new byte[8192];
             int counter = 0;
-            while (c != -1) {
-                if (c == '\n') counter += 1;
-                c = stream.read();
-            }
+            int count;
+            while ((count = stream.read(buffer)) != -1) counter += InternalUtil.countNewlines(buffer, 0, count);
             return counter + 1;
         } catch (IOException e) { throw new RuntimeException(e); }
     }
@@ -63,11 +70,7 @@ public class Util
      * Helper to count newlines in content.
      */
     public static int countLines(CharSequence stream) {
-        int counter = 0;
-        for (int i = 0; i < stream.length(); i++) {
-            if (stream.charAt(i) == '\n') counter += 1;
-        }
-        return counter + 1;
+        return InternalUtil.countNewlines(stream) + 1;
     }
 
     /**
@@ -83,27 +86,101 @@ public class Util
      * unite all this maps and generate the final map. It's done by rebasing each map on the map of the previous
      * transformation.
      *
+     * The previous map is swept once in order of source positions instead of searching it for every mapping.
+     *
      * @param sourceMap current source map.
      * @param previousSourceMap map from previous transformation.
      */
-    public static SourceMap rebase(SourceMap sourceMap, final SourceMap previousSourceMap) {
-        final SourceMap rebasedMap = new SourceMapImpl();
-        sourceMap.eachMapping(new SourceMap.EachMappingCallback() {
-            public void apply(Mapping mapping) {
-                Mapping rebasedMapping = previousSourceMap.getMapping(mapping.getSourceLine(), mapping.getSourceColumn());
-                if (rebasedMapping != null)  {
-                    rebasedMap.addMapping(
-                        mapping.getGeneratedLine(),
-                        mapping.getGeneratedColumn(),
-                        rebasedMapping.getSourceLine(),
-                        rebasedMapping.getSourceColumn(),
-                        rebasedMapping.getSourceFileName(),
-                        rebasedMapping.getSourceSymbolName()
-                    );
-                }
-            }
-        });
-        return rebasedMap;
+    public static SourceMap rebase(SourceMap sourceMap, SourceMap previousSourceMap) {
+        return Rebaser.rebase(sourceMap, previousSourceMap);
+    }
+
+    /**
+     * Rebases the source map on the maps of previous transformations of its source files, every file could be
+     * transformed differently. The mappings are rebased on the previous map of their source file, the mappings of
+     * files without previous map are kept as they are.
+     *
+     * @param sourceMap current source map.
+     * @param previousSourceMaps maps from previous transformation by the source file name.
+     */
+    public static SourceMap rebase(SourceMap sourceMap, Map<String, SourceMap> previousSourceMaps) {
+        return Rebaser.rebase(sourceMap, previousSourceMaps);
+    }
+
+    /**
+     * Get mappings of the position in source file, in order of generated positions. If the exact column isn't mapped
+     * the mappings of the next mapped column on the same line are returned. The source maps of this library keep the
+     * index for the lookups, for other source maps it's built on every call.
+     */
+    public static List<Mapping> getGeneratedPositions(SourceMap sourceMap, String sourceFileName, int sourceLine,
+                                                      int sourceColumn) {
+        if (sourceMap instanceof SourceMapImpl)
+            return ((SourceMapImpl) sourceMap).getGeneratedPositions(sourceFileName, sourceLine, sourceColumn);
+        if (sourceMap instanceof FrozenSourceMap)
+            return ((FrozenSourceMap) sourceMap).getGeneratedPositions(sourceFileName, sourceLine, sourceColumn);
+        if (sourceMap instanceof BinarySourceMap)
+            return ((BinarySourceMap) sourceMap).getGeneratedPositions(sourceFileName, sourceLine, sourceColumn);
+        return new ReverseIndex(MappingTable.of(sourceMap)).getGeneratedPositions(sourceFileName, sourceLine,
+            sourceColumn);
+    }
+
+    /**
+     * Get mappings of all the columns of the line in source file, in order of source columns.
+     */
+    public static List<Mapping> getGeneratedPositions(SourceMap sourceMap, String sourceFileName, int sourceLine) {
+        if (sourceMap instanceof SourceMapImpl)
+            return ((SourceMapImpl) sourceMap).getGeneratedPositions(sourceFileName, sourceLine);
+        if (sourceMap instanceof FrozenSourceMap)
+            return ((FrozenSourceMap) sourceMap).getGeneratedPositions(sourceFileName, sourceLine);
+        if (sourceMap instanceof BinarySourceMap)
+            return ((BinarySourceMap) sourceMap).getGeneratedPositions(sourceFileName, sourceLine);
+        return new ReverseIndex(MappingTable.of(sourceMap)).getGeneratedPositions(sourceFileName, sourceLine);
+    }
+
+    /**
+     * Generate source map JSON and write it to the writer, the writer is flushed but not closed. The source maps of
+     * this library are streamed, other source maps are generated as a string first.
+     */
+    public static void generate(SourceMap sourceMap, Writer out) {
+        if (sourceMap instanceof SourceMapImpl) ((SourceMapImpl) sourceMap).generate(out);
+        else if (sourceMap instanceof FrozenSourceMap) ((FrozenSourceMap) sourceMap).generate(out);
+        else if (sourceMap instanceof BinarySourceMap) ((BinarySourceMap) sourceMap).generate(out);
+        else {
+            try {
+                out.write(sourceMap.generate());
+                out.flush();
+            } catch (IOException e) { throw new RuntimeException(e); }
+        }
+    }
+
+    /**
+     * Generate source map JSON and write it to the stream as UTF-8, the stream is flushed but not closed.
+     */
+    public static void generate(SourceMap sourceMap, OutputStream out) {
+        if (sourceMap instanceof SourceMapImpl) ((SourceMapImpl) sourceMap).generate(out);
+        else if (sourceMap instanceof FrozenSourceMap) ((FrozenSourceMap) sourceMap).generate(out);
+        else if (sourceMap instanceof BinarySourceMap) ((BinarySourceMap) sourceMap).generate(out);
+        else {
+            try {
+                out.write(sourceMap.generate().getBytes(Consumer.UTF8));
+                out.flush();
+            } catch (IOException e) { throw new RuntimeException(e); }
+        }
+    }
+
+    /**
+     * Generate source map JSON and write it to the channel as UTF-8, the channel isn't closed.
+     */
+    public static void generate(SourceMap sourceMap, WritableByteChannel out) {
+        if (sourceMap instanceof SourceMapImpl) ((SourceMapImpl) sourceMap).generate(out);
+        else if (sourceMap instanceof FrozenSourceMap) ((FrozenSourceMap) sourceMap).generate(out);
+        else if (sourceMap instanceof BinarySourceMap) ((BinarySourceMap) sourceMap).generate(out);
+        else {
+            try {
+                ByteBuffer bytes = ByteBuffer.wrap(sourceMap.generate().getBytes(Consumer.UTF8));
+                while (bytes.hasRemaining()) out.write(bytes);
+            } catch (IOException e) { throw new RuntimeException(e); }
+        }
     }
 
     /**
@@ -113,4 +190,21 @@ public class Util
     public static SourceMapJoiner joiner() {
         return new SourceMapJoiner();
     }
+
+    /**
+     * Join multiple source maps, the joined names are interned in the pool.
+     * @return helper to join multiple source maps.
+     */
+    public static SourceMapJoiner joiner(NamePool pool) {
+        return new SourceMapJoiner(pool);
+    }
+
+    /**
+     * Join multiple source maps, the joiner keeps them so the batch could be joined again after some of them
+     * have been changed.
+     * @return helper to join multiple source maps incrementally.
+     */
+    public static IncrementalSourceMapJoiner incrementalJoiner() {
+        return new IncrementalSourceMapJoiner();
+    }
 }
\ No newline at end of file
@@ -2,9 +2,29 @@ package com.atlassian.sourcemap;
 
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 public class TestSourceMap {
     @Test
@@ -39,6 +59,174 @@ public class TestSourceMap {
         assertThat(check.generate(), equalTo(mapAsString));
     }
 
+    @Test
+    public void shouldParseSegmentsOutOfColumnOrder() {
+        // Columns 5 and 4, the second segment is mapped to the source column 1.
+        String content = "{\"version\":3,\"sources\":[\"/a.js\"],\"names\":[],\"mappings\":\"KAAA,DAAC;\"}";
+        SourceMap map = new SourceMapImpl(content);
+        assertThat(map.getMapping(0, 3), nullValue());
+        assertThat(map.getMapping(0, 4).getSourceColumn(), equalTo(1));
+        assertThat(map.getMapping(0, 6).getSourceColumn(), equalTo(0));
+
+        try {
+            map = new SourceMapImpl();
+            map.addMapping(0, 5, 0, 0, "/a.js");
+            map.addMapping(0, 4, 0, 1, "/a.js");
+            fail();
+        } catch (RuntimeException e) {
+            assertThat(e.getMessage(), equalTo("mappings should be added in a proper order!"));
+        }
+    }
+
+    @Test
+    public void shouldGetMappingFromParsedMap() {
+        SourceMap map = new SourceMapImpl(
+            "{\n" +
+            "  \"version\":3,\n" +
+            "  \"sources\":[\"/a.js\",\"/b.js\"],\n" +
+            "  \"names\":[\"foo\"],\n" +
+            "  \"mappings\":\"AAAA,KCAAA;;AAIA\"\n" +
+            "}"
+        );
+        assertThat(map.getMapping(0, 0).getSourceFileName(), equalTo("/a.js"));
+        assertThat(map.getMapping(0, 7).getSourceFileName(), equalTo("/b.js"));
+        assertThat(map.getMapping(0, 7).getSourceSymbolName(), equalTo("foo"));
+        // Empty line resolves to the last mapping of the previous line.
+        assertThat(map.getMapping(1, 3).getGeneratedColumn(), equalTo(5));
+        assertThat(map.getMapping(2, 0).getSourceLine(), equalTo(4));
+        assertThat(map.getMapping(2, 0).getSourceSymbolName(), nullValue());
+        assertThat(map.getMapping(3, 0), nullValue());
+    }
+
+    @Test
+    public void shouldFindGeneratedPositions() {
+        SourceMapImpl map = new SourceMapImpl();
+        map.addMapping(0, 0, 3, 4, "/a.js");
+        map.addMapping(0, 6, 1, 0, "/b.js");
+        map.addMapping(1, 2, 3, 0, "/a.js");
+        map.addMapping(2, 0, 3, 4, "/a.js", "x");
+        map.addMapping(2, 9, 5, 0, "/a.js");
+        map = new SourceMapImpl(map.generate());
+
+        assertThat(map.getGeneratedPositions("/a.js", 3, 4).toString(), equalTo(
+            "[Mapping 0:0 -> /a.js:3:4, Mapping 2:0 -> /a.js:3:4]"));
+        assertThat(map.getGeneratedPositions("/a.js", 3, 1).toString(), equalTo(
+            "[Mapping 0:0 -> /a.js:3:4, Mapping 2:0 -> /a.js:3:4]"));
+        assertThat(map.getGeneratedPositions("/a.js", 3, 5).size(), equalTo(0));
+        assertThat(map.getGeneratedPositions("/a.js", 3).toString(), equalTo(
+            "[Mapping 1:2 -> /a.js:3:0, Mapping 0:0 -> /a.js:3:4, Mapping 2:0 -> /a.js:3:4]"));
+        assertThat(map.getGeneratedPositions("/c.js", 3).size(), equalTo(0));
+
+        map.addMapping(3, 0, 3, 2, "/a.js");
+        assertThat(map.getGeneratedPositions("/a.js", 3, 1).get(0).getGeneratedLine(), equalTo(3));
+        assertThat(Util.getGeneratedPositions(map.freeze(), "/a.js", 3).size(), equalTo(4));
+    }
+
+    @Test
+    public void shouldOrderNegativeSourceColumnsWithinTheirLine() {
+        SourceMapImpl map = new SourceMapImpl();
+        map.addMapping(0, 0, 1, -1, "/a.js");
+        map.addMapping(0, 5, 0, 2, "/a.js");
+        map.addMapping(1, 0, 1, 3, "/a.js");
+        assertThat(map.getGeneratedPositions("/a.js", 1).toString(), equalTo(
+            "[Mapping 0:0 -> /a.js:1:-1, Mapping 1:0 -> /a.js:1:3]"));
+        assertThat(map.getGeneratedPositions("/a.js", 0).toString(), equalTo("[Mapping 0:5 -> /a.js:0:2]"));
+
+        SourceMap previous = new SourceMapImpl();
+        previous.addMapping(0, 2, 11, 0, "/b.js");
+        previous.addMapping(0, 4, 12, 0, "/b.js");
+        previous.addMapping(1, 0, 20, 0, "/b.js");
+        SourceMap rebased = Util.rebase(map, previous);
+        assertThat(rebased.getMapping(0, 0).getSourceLine(), equalTo(12));
+        assertThat(rebased.getMapping(0, 5).getSourceLine(), equalTo(11));
+        assertThat(rebased.getMapping(1, 0).getSourceLine(), equalTo(20));
+    }
+
+    @Test
+    public void shouldParseSourceMapWithFieldsInAnyOrder() throws Exception {
+        String content =
+            "{\n" +
+            "  \"mappings\":\"AAAA,KCAAA;\",\n" +
+            "  \"x_extension\":{\"a\":[1, 2.5e3, true, null, {\"b\":\"\\\"}\"}]},\n" +
+            "  \"sourcesContent\":[\"var a = \\\"\\u00e9\\\";\", null],\n" +
+            "  \"names\":[\"f\\u00f6o\"],\n" +
+            "  \"sources\":[\"/a.js\",\"\\/b.js\"],\n" +
+            "  \"version\":3\n" +
+            "}";
+        SourceMap map = new SourceMapImpl(content.getBytes("UTF-8"));
+        assertThat(map.getMapping(0, 0).getSourceFileName(), equalTo("/a.js"));
+        assertThat(map.getMapping(0, 5).getSourceFileName(), equalTo("/b.js"));
+        assertThat(map.getMapping(0, 5).getSourceSymbolName(), equalTo("f\u00f6o"));
+
+        map = new SourceMapImpl(new ByteArrayInputStream(content.getBytes("UTF-8")));
+        assertThat(map.getSourceFileNames().size(), equalTo(2));
+    }
+
+    @Test
+    public void shouldParseSourceMapWithXssiPrefix() throws Exception {
+        String content = ")]}'\n{\"version\":3,\"sources\":[\"/a.js\"],\"names\":[],\"mappings\":\"AAAA\"}";
+        assertThat(new SourceMapImpl(content).getMapping(0, 0).getSourceFileName(), equalTo("/a.js"));
+        assertThat(new SourceMapImpl(content.getBytes("UTF-8")).getMapping(0, 0).getSourceFileName(),
+            equalTo("/a.js"));
+    }
+
+    @Test
+    public void shouldParseIntegerValues() {
+        String content = "{\"version\":3.0,\"sources\":[],\"names\":[],\"mappings\":\"\"}";
+        assertThat(new SourceMapImpl(content).getSourceFileNames().size(), equalTo(0));
+        content = "{\"version\":0.3e1,\"sources\":[],\"names\":[],\"mappings\":\"\"}";
+        assertThat(new SourceMapImpl(content).getSourceFileNames().size(), equalTo(0));
+
+        for (String version : new String[] {"4294967299", "3.5", "-2147483651"}) {
+            try {
+                new SourceMapImpl("{\"version\":" + version + ",\"sources\":[],\"names\":[],\"mappings\":\"\"}");
+                fail();
+            } catch (RuntimeException e) {
+                assertThat(e.getMessage(), equalTo("invalid source map JSON, expected integer at position 11!"));
+            }
+        }
+    }
+
+    @Test
+    public void shouldDecodeLazily() {
+        SourceMap map = new SourceMapImpl();
+        for (int line = 0; line < 1000; line++) {
+            // Leaving some lines empty.
+            if (line % 7 == 3) continue;
+            for (int column = 0; column < 30; column += 10) {
+                map.addMapping(line, column + line % 3, (line * 13) % 100, column / 2, "/" + (line % 5) + ".js");
+            }
+        }
+        String mapAsString = map.generate();
+
+        SourceMap eager = new SourceMapImpl(mapAsString);
+        SourceMap lazy = new SourceMapImpl(mapAsString, true);
+        // Going backward to make sure checkpoints and cache eviction works in any order.
+        for (int line = 1001; line >= 0; line--) {
+            for (int column = 0; column < 35; column += 4) {
+                assertThat(String.valueOf(lazy.getMapping(line, column)),
+                    equalTo(String.valueOf(eager.getMapping(line, column))));
+            }
+        }
+        assertThat(lazy.generate(), equalTo(mapAsString));
+    }
+
+    @Test
+    public void shouldDecodeLazilySameAsEagerly() {
+        // Columns 5, 4 and 4 mapped to the source columns 0, 1 and 2.
+        String content = "{\"version\":3,\"sources\":[\"/a.js\"],\"names\":[],\"mappings\":\"KAAA,DAAC,AAAC;;AAAA\"}";
+        SourceMap eager = new SourceMapImpl(content);
+        SourceMap lazy = new SourceMapImpl(content, true);
+        for (int line = 0; line < 4; line++) {
+            for (int column = 0; column < 8; column++) {
+                assertThat(String.valueOf(lazy.getMapping(line, column)),
+                    equalTo(String.valueOf(eager.getMapping(line, column))));
+            }
+        }
+        // The last segment covering the column is used.
+        assertThat(lazy.getMapping(0, 4).getSourceColumn(), equalTo(2));
+    }
+
     @Test
     public void shouldGenerate1to1SourceMap() {
         assertThat(Util.create1to1SourceMap("var a = 1;\nvar b = 2", "/script.js").generate(), containsString("AAAA;AACA;"));
@@ -64,6 +252,23 @@ public class TestSourceMap {
         assertThat(map.generate(), equalTo(originalSourceMap));
     }
 
+    @Test
+    public void shouldOffsetParsedMapWithoutDecoding() {
+        String sourceMap = "{\"version\":3,\"sources\":[\"\\/a.js\"],\"names\":[\"x\"],\"mappings\":\"AAAAA;AACA\"}";
+        SourceMap map = new SourceMapImpl(sourceMap);
+        assertThat(map.generate(), containsString("\"sources\":[\"\\/a.js\"]"));
+        assertThat(map.generate(), containsString("\"mappings\":\"AAAAA;AACA\""));
+
+        SourceMap mapWithOffset = Util.offset(Util.offset(map, 2), 1);
+        assertThat(mapWithOffset.generate(), containsString("\"mappings\":\";;;AAAAA;AACA\""));
+        assertThat(mapWithOffset.getMapping(4, 0).getSourceLine(), equalTo(1));
+        assertThat(mapWithOffset.getMapping(3, 0).getSourceFileName(), equalTo("/a.js"));
+
+        mapWithOffset.addMapping(5, 0, 2, 0, "/b.js");
+        assertThat(mapWithOffset.generate(), containsString("\"sources\":[\"/a.js\",\"/b.js\"]"));
+        assertThat(map.getSourceFileNames().size(), equalTo(1));
+    }
+
     @Test
     public void shouldJoinMaps() {
         String src1 = "var a = 1;\nvar b = 2";
@@ -85,6 +290,223 @@ public class TestSourceMap {
         assertThat(joiner.join().generate(), equalTo(expected.generate()));
     }
 
+    @Test
+    public void shouldJoinMapsIntoIndexMap() {
+        SourceMap map1 = Util.create1to1SourceMap("var a = 1;\nvar b = 2", "/script1.js");
+        SourceMap map2 = new SourceMapImpl(Util.create1to1SourceMap("var c = 3;", "/script2.js").generate());
+
+        SourceMapJoiner joiner = Util.joiner();
+        joiner.addSourceMap(map1, 6, 2);
+        joiner.addSourceMap(null, 1, 0);
+        joiner.addSourceMap(map2, 1, 0);
+        String indexMap = joiner.joinToIndexMap();
+        assertThat(indexMap, equalTo(
+            "{\n" +
+            "  \"version\":3,\n" +
+            "  \"sections\":[\n" +
+            "    {\"offset\":{\"line\":2,\"column\":0},\"map\":" + map1.generate() + "},\n" +
+            "    {\"offset\":{\"line\":7,\"column\":0},\"map\":" + map2.generate() + "}\n" +
+            "  ]\n" +
+            "}"
+        ));
+
+        StringWriter writer = new StringWriter();
+        joiner.joinToIndexMap(writer);
+        assertThat(writer.toString(), equalTo(indexMap));
+    }
+
+    @Test
+    public void shouldParseIndexMap() {
+        SourceMap map1 = new SourceMapImpl();
+        map1.addMapping(0, 0, 0, 0, "/a.js");
+        map1.addMapping(0, 4, 0, 4, "/a.js", "x");
+        map1.addMapping(1, 2, 1, 0, "/a.js");
+        SourceMap map2 = new SourceMapImpl();
+        map2.addMapping(0, 0, 3, 0, "/b.js", "y");
+        map2.addMapping(1, 0, 4, 0, "/a.js");
+        String indexMap = "{\"version\":3,\"sections\":[\n" +
+            "  {\"offset\":{\"line\":1,\"column\":0},\"map\":" + map1.generate() + "},\n" +
+            "  {\"offset\":{\"line\":2,\"column\":10},\"map\":" + map2.generate() + "}\n" +
+            "]}";
+
+        SourceMap map = new SourceMapImpl(indexMap);
+        assertThat(map.getMapping(0, 0), nullValue());
+        assertThat(map.getMapping(1, 5).getSourceSymbolName(), equalTo("x"));
+        assertThat(map.getMapping(1, 5).getGeneratedColumn(), equalTo(4));
+        assertThat(map.getMapping(2, 9).getSourceLine(), equalTo(1));
+        assertThat(map.getMapping(2, 10).getSourceFileName(), equalTo("/b.js"));
+        assertThat(map.getMapping(3, 0).getSourceLine(), equalTo(4));
+        assertThat(map.getSourceFileNames().toString(), equalTo("[/a.js, /b.js]"));
+
+        SourceMap expected = new SourceMapImpl();
+        expected.addMapping(1, 0, 0, 0, "/a.js");
+        expected.addMapping(1, 4, 0, 4, "/a.js", "x");
+        expected.addMapping(2, 2, 1, 0, "/a.js");
+        expected.addMapping(2, 10, 3, 0, "/b.js", "y");
+        expected.addMapping(3, 0, 4, 0, "/a.js");
+        assertThat(mappingsToString(map), equalTo(mappingsToString(expected)));
+        assertThat(map.generate(), equalTo(expected.generate()));
+    }
+
+    @Test
+    public void shouldLookUpIndexMapLikeFlattenedMap() {
+        SourceMap map1 = new SourceMapImpl();
+        map1.addMapping(0, 2, 0, 0, "/a.js");
+        map1.addMapping(1, 3, 1, 0, "/a.js", "x");
+        // The section starts after an empty line and its first segment isn't at the section start.
+        SourceMap map2 = new SourceMapImpl();
+        map2.addMapping(1, 4, 7, 0, "/b.js");
+        SourceMap map3 = new SourceMapImpl();
+        map3.addMapping(0, 5, 2, 0, "/c.js");
+        String indexMap = "{\"version\":3,\"sections\":[\n" +
+            "  {\"offset\":{\"line\":1,\"column\":0},\"map\":" + map1.generate() + "},\n" +
+            "  {\"offset\":{\"line\":2,\"column\":6},\"map\":" + map2.generate() + "},\n" +
+            "  {\"offset\":{\"line\":3,\"column\":3},\"map\":{\"version\":3,\"sources\":[],\"names\":[],\"mappings\":\"\"}},\n" +
+            "  {\"offset\":{\"line\":5,\"column\":0},\"map\":" + map3.generate() + "}\n" +
+            "]}";
+
+        SourceMap map = new SourceMapImpl(indexMap);
+        SourceMap flattened = new SourceMapImpl(map.generate());
+        for (int line = 0; line < 7; line++) {
+            for (int column = 0; column < 12; column++) {
+                assertThat(line + ":" + column + " " + map.getMapping(line, column),
+                    equalTo(line + ":" + column + " " + flattened.getMapping(line, column)));
+            }
+        }
+        assertThat(map.getMapping(3, 0).getSourceSymbolName(), equalTo("x"));
+    }
+
+    @Test
+    public void shouldParseJoinedIndexMap() {
+        SourceMapJoiner joiner = Util.joiner();
+        joiner.addSourceMap(Util.create1to1SourceMap("var a = 1;\nvar b = 2", "/script1.js"), 6, 2);
+        joiner.addSourceMap(Util.create1to1SourceMap("var c = 3;", "/script2.js"), 1, 0);
+        SourceMap expected = joiner.join();
+        assertThat(mappingsToString(new SourceMapImpl(joiner.joinToIndexMap())), equalTo(mappingsToString(expected)));
+    }
+
+    @Test
+    public void shouldLookUpIndexMapConcurrently() throws Exception {
+        SourceMapJoiner joiner = Util.joiner();
+        for (int i = 0; i < 200; i++) joiner.addSourceMap(Util.create1to1SourceMap("a\nb", "/" + i + ".js"), 2, 0);
+        final SourceMap map = new SourceMapImpl(joiner.joinToIndexMap());
+
+        final AtomicInteger failures = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int line = 0; line < 400; line++) {
+                        Mapping mapping = map.getMapping(line, 0);
+                        if (mapping == null || !mapping.getSourceFileName().equals("/" + line / 2 + ".js"))
+                            failures.incrementAndGet();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertThat(failures.get(), equalTo(0));
+    }
+
+    @Test
+    public void shouldJoinParsedMapsWithoutDecoding() {
+        SourceMap map1 = new SourceMapImpl();
+        map1.addMapping(0, 0, 0, 0, "/a.js");
+        map1.addMapping(0, 4, 0, 4, "/b.js", "x");
+        map1.addMapping(2, 2, 1, 0, "/a.js", "y");
+        SourceMap map2 = new SourceMapImpl();
+        map2.addMapping(0, 3, 5, 1, "/b.js");
+        map2.addMapping(1, 0, 0, 0, "/c.js", "y");
+        map2.addMapping(1, 6, 2, 3, "/c.js", "z");
+
+        SourceMapJoiner decoded = Util.joiner();
+        decoded.addSourceMap(map1, 4, 1);
+        decoded.addSourceMap(map2, 3, 0);
+        SourceMapJoiner encoded = Util.joiner();
+        encoded.addSourceMap(new SourceMapImpl(map1.generate()), 4, 1);
+        encoded.addSourceMap(new SourceMapImpl(map2.generate(), true), 3, 0);
+
+        SourceMap expected = decoded.join();
+        SourceMap joined = encoded.join();
+        assertThat(mappingsToString(joined), equalTo(mappingsToString(expected)));
+        assertThat(mappingsToString(new SourceMapImpl(joined.generate())), equalTo(mappingsToString(expected)));
+        assertThat(joined.getMapping(5, 7).getSourceSymbolName(), equalTo("z"));
+    }
+
+    @Test
+    public void shouldJoinParsedMapsWithSharedNamesWithoutDecoding() {
+        SourceMap map1 = new SourceMapImpl();
+        map1.addMapping(0, 0, 0, 0, "/a.js", "x");
+        map1.addMapping(0, 4, 0, 4, "/a.js", "y");
+        SourceMap map2 = new SourceMapImpl();
+        map2.addMapping(0, 3, 5, 1, "/b.js", "z");
+        map2.addMapping(1, 0, 0, 0, "/a.js", "y");
+
+        SourceMapJoiner decoded = Util.joiner();
+        decoded.addSourceMap(map1, 1, 0);
+        decoded.addSourceMap(map2, 2, 0);
+        SourceMapJoiner encoded = Util.joiner();
+        encoded.addSourceMap(new SourceMapImpl(map1.generate()), 1, 0);
+        encoded.addSourceMap(new SourceMapImpl(map2.generate()), 2, 0);
+
+        SourceMap joined = encoded.join();
+        assertThat(mappingsToString(joined), equalTo(mappingsToString(decoded.join())));
+        // The names of the second map are spliced as a new range, the decoded join would list every name once.
+        assertThat(joined.generate(), containsString("\"sources\":[\"/a.js\",\"/b.js\",\"/a.js\"]"));
+        assertThat(joined.generate(), containsString("\"names\":[\"x\",\"y\",\"z\",\"y\"]"));
+    }
+
+    @Test
+    public void shouldJoinIncrementally() {
+        List<SourceMap> maps = new ArrayList<SourceMap>();
+        for (int i = 0; i < 5; i++) {
+            SourceMap map = new SourceMapImpl();
+            map.addMapping(0, i, i, 0, "/" + i + ".js");
+            map.addMapping(1, 2, 3, i, "/" + i + ".js", "n" + (i % 2));
+            map.addMapping(1, 4, 0, 0, "/shared.js", "n" + i);
+            // Parsed and built source maps.
+            maps.add(i % 2 == 0 ? new SourceMapImpl(map.generate()) : map);
+        }
+        maps.set(3, null);
+
+        IncrementalSourceMapJoiner joiner = Util.incrementalJoiner();
+        for (SourceMap map : maps) joiner.addSourceMap(map, 3, 1);
+        assertThat(mappingsToString(joiner.join()), equalTo(mappingsToString(join(maps))));
+
+        SourceMap changed = new SourceMapImpl();
+        changed.addMapping(0, 1, 7, 7, "/changed.js", "x");
+        maps.set(1, changed);
+        joiner.setSourceMap(1, changed, 3, 1);
+        maps.add(0, maps.get(4));
+        joiner.insertSourceMap(0, maps.get(0), 3, 1);
+        maps.remove(3);
+        joiner.removeSourceMap(3);
+
+        SourceMap joined = joiner.join();
+        assertThat(joiner.size(), equalTo(5));
+        assertThat(mappingsToString(joined), equalTo(mappingsToString(join(maps))));
+        assertThat(mappingsToString(new SourceMapImpl(joined.generate())), equalTo(mappingsToString(join(maps))));
+    }
+
+    private static SourceMap join(List<SourceMap> maps) {
+        SourceMapJoiner joiner = Util.joiner();
+        for (SourceMap map : maps) joiner.addSourceMap(map, 3, 1);
+        return joiner.join();
+    }
+
+    private static String mappingsToString(SourceMap map) {
+        final StringBuilder buff = new StringBuilder();
+        map.eachMapping(new SourceMap.EachMappingCallback() {
+            public void apply(Mapping mapping) {
+                buff.append(mapping.getGeneratedLine() + ":" + mapping.getGeneratedColumn() + " "
+                    + mapping.getSourceFileName() + ":" + mapping.getSourceLine() + ":" + mapping.getSourceColumn()
+                    + " " + mapping.getSourceSymbolName() + "\n");
+            }
+        });
+        return buff.toString();
+    }
+
     @Test
     public void shouldRebaseMaps() {
         SourceMap base = new SourceMapImpl();
@@ -113,6 +535,57 @@ public class TestSourceMap {
         assertThat(rebased2.generate(), equalTo(expected.generate()));
     }
 
+    @Test
+    public void shouldRebaseUnorderedMappingsLikeLookingUpEachOfThem() {
+        SourceMap previous = new SourceMapImpl();
+        for (int line = 0; line < 50; line += 2) {
+            previous.addMapping(line, 0, line * 3, 0, "/a.less");
+            previous.addMapping(line, 10, line * 3 + 1, 4, "/b.less", "n" + line);
+        }
+        SourceMap map = new SourceMapImpl();
+        for (int line = 0; line < 40; line++) {
+            map.addMapping(line, 0, (line * 17) % 53, (line * 7) % 13, "/a.css");
+            map.addMapping(line, 5, (line * 17) % 53, 10, "/a.css");
+        }
+
+        SourceMap expected = new SourceMapImpl();
+        for (int line = 0; line < 40; line++) {
+            for (int column : new int[]{0, 5}) {
+                Mapping mapping = map.getMapping(line, column);
+                Mapping rebased = previous.getMapping(mapping.getSourceLine(), mapping.getSourceColumn());
+                if (rebased != null) expected.addMapping(line, column, rebased.getSourceLine(),
+                    rebased.getSourceColumn(), rebased.getSourceFileName(), rebased.getSourceSymbolName());
+            }
+        }
+        assertThat(Util.rebase(map, previous).generate(), equalTo(expected.generate()));
+    }
+
+    @Test
+    public void shouldRebaseEachSourceFileOnItsOwnMap() {
+        SourceMap coffee = new SourceMapImpl();
+        coffee.addMapping(0, 0, 0, 0, "/a.coffee");
+        coffee.addMapping(1, 0, 0, 4, "/a.coffee", "f");
+        SourceMap typescript = new SourceMapImpl();
+        typescript.addMapping(0, 0, 2, 0, "/b.ts");
+
+        SourceMap map = new SourceMapImpl();
+        map.addMapping(0, 0, 1, 0, "/a.js");
+        map.addMapping(0, 8, 0, 0, "/b.js");
+        map.addMapping(0, 12, 0, 0, "/a.js");
+        map.addMapping(1, 0, 3, 1, "/c.js", "g");
+
+        Map<String, SourceMap> previous = new HashMap<String, SourceMap>();
+        previous.put("/a.js", coffee);
+        previous.put("/b.js", typescript);
+
+        SourceMap expected = new SourceMapImpl();
+        expected.addMapping(0, 0, 0, 4, "/a.coffee", "f");
+        expected.addMapping(0, 8, 2, 0, "/b.ts");
+        expected.addMapping(0, 12, 0, 0, "/a.coffee");
+        expected.addMapping(1, 0, 3, 1, "/c.js", "g");
+        assertThat(Util.rebase(map, previous).generate(), equalTo(expected.generate()));
+    }
+
     @Test
     public void shouldRebaseIfSomeMappingsAreMissing() {
         SourceMap base = new SourceMapImpl();
@@ -144,6 +617,596 @@ public class TestSourceMap {
         assertThat(sourceMapContent, equalTo(sourceMap.generate()));
     }
 
+    @Test
+    public void shouldReadAndWriteSimultaneously() {
+        SourceMap map = new SourceMapImpl();
+        map.addMapping(0, 0, 0, 0, "/a.js");
+        assertThat(map.getMapping(0, 3).getSourceFileName(), equalTo("/a.js"));
+        map.addMapping(0, 5, 0, 10, "/a.js");
+        assertThat(map.getMapping(0, 7).getSourceColumn(), equalTo(10));
+
+        // Writing into parsed map.
+        map = new SourceMapImpl(map.generate());
+        map.addMapping(2, 0, 4, 0, "/a.js");
+        assertThat(map.getMapping(2, 1).getSourceLine(), equalTo(4));
+        map.addMapping(2, 5, 9, 0, "/a.js", "foo");
+        assertThat(map.getMapping(2, 5).getSourceSymbolName(), equalTo("foo"));
+        assertThat(map.generate(), containsString("AAAA,KAAU;;AAIV,KAKAA;"));
+    }
+
+    @Test
+    public void shouldGenerateIntoStreams() throws Exception {
+        SourceMapImpl map = new SourceMapImpl();
+        for (int line = 0; line < 2000; line++) map.addMapping(line, 0, line, 0, "/\u00e9t\u00e9.js", "f" + line);
+        String expected = map.generate();
+
+        StringWriter writer = new StringWriter();
+        map.generate(writer);
+        assertThat(writer.toString(), equalTo(expected));
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        map.generate(stream);
+        assertThat(stream.toString("UTF-8"), equalTo(expected));
+
+        ByteArrayOutputStream channelStream = new ByteArrayOutputStream();
+        map.generate(Channels.newChannel(channelStream));
+        assertThat(channelStream.toString("UTF-8"), equalTo(expected));
+        assertThat(new SourceMapImpl(channelStream.toByteArray()).getMapping(5, 0).getSourceFileName(),
+            equalTo("/\u00e9t\u00e9.js"));
+
+        StringWriter frozenWriter = new StringWriter();
+        Util.generate(map.freeze(), frozenWriter);
+        assertThat(frozenWriter.toString(), equalTo(expected));
+    }
+
+    @Test
+    public void shouldCacheParsedMaps() throws Exception {
+        final String content = Util.create1to1SourceMap("a\nb\nc", "/a.js").generate();
+        SourceMap parsed = new SourceMapImpl(content);
+        long size = ((FrozenSourceMap) ((SourceMapImpl) parsed).freeze()).estimateSize();
+
+        SourceMapCache cache = new SourceMapCache(2 * size);
+        SourceMap map = cache.get(content);
+        assertThat(cache.get(content) == map, equalTo(true));
+        assertThat(map.getMapping(2, 0).getSourceLine(), equalTo(2));
+        assertThat(cache.getMissCount(), equalTo(1L));
+        assertThat(cache.getHitCount(), equalTo(1L));
+
+        cache.get("b", loader(content));
+        cache.get(content);
+        cache.get("c", loader(content));
+        // The least recently used "b" is evicted.
+        assertThat(cache.getEvictionCount(), equalTo(1L));
+        assertThat(cache.getEntryCount(), equalTo(2));
+        assertThat(cache.getSize(), equalTo(2 * size));
+        cache.get("b", loader(content));
+        assertThat(cache.getMissCount(), equalTo(4L));
+    }
+
+    @Test
+    public void shouldNotCacheMapBiggerThanCache() throws Exception {
+        final String small = Util.create1to1SourceMap("a\nb\nc", "/a.js").generate();
+        long size = ((FrozenSourceMap) new SourceMapImpl(small).freeze()).estimateSize();
+        StringBuilder mappings = new StringBuilder("AAAA");
+        for (int i = 1; i < 1000; i++) mappings.append(";AACA");
+        final String big = "{\"version\":3,\"sources\":[\"/b.js\"],\"names\":[],\"mappings\":\"" + mappings + "\"}";
+
+        SourceMapCache cache = new SourceMapCache(2 * size);
+        cache.get(small);
+        SourceMap map = cache.get("big", loader(big));
+        // The big map is returned but isn't cached, the small one is kept.
+        assertThat(map.getMapping(999, 0).getSourceLine(), equalTo(999));
+        assertThat(cache.getEntryCount(), equalTo(1));
+        assertThat(cache.getEvictionCount(), equalTo(0L));
+        assertThat(cache.getSize(), equalTo(size));
+        cache.get(small);
+        assertThat(cache.getHitCount(), equalTo(1L));
+    }
+
+    @Test
+    public void shouldLoadCachedMapOnlyOnce() throws Exception {
+        final SourceMapCache cache = new SourceMapCache(1000000);
+        final String content = Util.create1to1SourceMap("a\nb", "/a.js").generate();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+        final SourceMapCache.Loader loader = new SourceMapCache.Loader() {
+            public String load() {
+                loads.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) { throw new RuntimeException(e); }
+                return content;
+            }
+        };
+
+        Thread[] threads = new Thread[4];
+        final SourceMap[] results = new SourceMap[threads.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    results[index] = cache.get("key", loader);
+                }
+            };
+            threads[i].start();
+        }
+        started.await();
+        release.countDown();
+        for (Thread thread : threads) thread.join();
+
+        assertThat(loads.get(), equalTo(1));
+        for (SourceMap result : results) assertThat(result == results[0], equalTo(true));
+        assertThat(cache.getMissCount(), equalTo(1L));
+    }
+
+    @Test
+    public void shouldNotCacheMapInvalidatedWhileLoading() throws Exception {
+        final SourceMapCache cache = new SourceMapCache(1000000);
+        final String oldContent = Util.create1to1SourceMap("a", "/old.js").generate();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread thread = new Thread() {
+            public void run() {
+                cache.get("key", new SourceMapCache.Loader() {
+                    public String load() {
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) { throw new RuntimeException(e); }
+                        return oldContent;
+                    }
+                });
+            }
+        };
+        thread.start();
+        started.await();
+        cache.invalidate("key");
+        release.countDown();
+        thread.join();
+
+        assertThat(cache.getEntryCount(), equalTo(0));
+        String newContent = Util.create1to1SourceMap("a", "/new.js").generate();
+        assertThat(cache.get("key", loader(newContent)).getSourceFileNames().toString(), equalTo("[/new.js]"));
+        assertThat(cache.getMissCount(), equalTo(2L));
+    }
+
+    private static SourceMapCache.Loader loader(final String content) {
+        return new SourceMapCache.Loader() {
+            public String load() {
+                return content;
+            }
+        };
+    }
+
+    @Test
+    public void shouldFreezeSourceMap() throws Exception {
+        SourceMapImpl map = new SourceMapImpl();
+        for (int line = 0; line < 1000; line++) map.addMapping(line, 0, line, 0, "/a.js", "f" + line % 10);
+        final SourceMap frozen = map.freeze();
+        final String generated = map.generate();
+        map.addMapping(1000, 0, 0, 0, "/b.js");
+
+        assertThat(frozen.generate(), equalTo(generated));
+        assertThat(frozen.getSourceFileNames().size(), equalTo(1));
+        try {
+            frozen.addMapping(1001, 0, 0, 0, "/b.js");
+            throw new AssertionError("frozen source map modified");
+        } catch (RuntimeException e) {
+            assertThat(e.getMessage(), containsString("frozen"));
+        }
+
+        final AtomicInteger failures = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int line = 999; line >= 0; line--) {
+                        if (frozen.getMapping(line, 5).getSourceLine() != line) failures.incrementAndGet();
+                        if (Util.getGeneratedPositions(frozen, "/a.js", line).size() != 1) failures.incrementAndGet();
+                    }
+                    if (!frozen.generate().equals(generated)) failures.incrementAndGet();
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertThat(failures.get(), equalTo(0));
+
+        SourceMap parsed = new SourceMapImpl(generated, true).freeze();
+        assertThat(parsed.generate(), equalTo(generated));
+        assertThat(Util.offset(parsed, 2).getMapping(2, 0).getSourceLine(), equalTo(0));
+    }
+
+    @Test
+    public void shouldSymbolicateStackTrace() {
+        final SourceMap map = new SourceMapImpl();
+        map.addMapping(0, 0, 9, 0, "/src/a.js");
+        map.addMapping(0, 20, 19, 4, "/src/b.js");
+        map.addMapping(1, 0, 29, 2, "/src/a.js");
+        Symbolicator symbolicator = new Symbolicator(new Symbolicator.SourceMapProvider() {
+            public SourceMap get(String key) {
+                return "http://host/app.js".equals(key) ? map : null;
+            }
+        });
+
+        String stackTrace =
+            "TypeError: x is undefined\n" +
+            "    at foo (http://host/app.js:1:25)\n" +
+            "    at http://host/app.js:2:1\n" +
+            "    at bar (http://host/other.js:1:1)";
+        assertThat(symbolicator.symbolicate(stackTrace).getStackTrace(), equalTo(
+            "TypeError: x is undefined\n" +
+            "    at foo (/src/b.js:20:5)\n" +
+            "    at /src/a.js:30:3\n" +
+            "    at bar (http://host/other.js:1:1)"));
+
+        assertThat(symbolicator.symbolicate("foo@http://host/app.js:1:5\nglobal code@http://host/app.js:2:3")
+            .getStackTrace(), equalTo("foo@/src/a.js:10:1\nglobal code@/src/a.js:30:3"));
+    }
+
+    @Test
+    public void shouldSymbolicateAsyncAndAnonymousFrames() {
+        final SourceMap map = new SourceMapImpl();
+        map.addMapping(0, 0, 9, 0, "/src/a.js");
+        final List<String> keys = new ArrayList<String>();
+        Symbolicator symbolicator = new Symbolicator(new Symbolicator.SourceMapProvider() {
+            public SourceMap get(String key) {
+                keys.add(key);
+                return "http://host/app.js".equals(key) ? map : null;
+            }
+        });
+
+        String stackTrace =
+            "    at async http://host/app.js:1:1\n" +
+            "    at async foo (http://host/app.js:1:2)\n" +
+            "http://host/app.js:1:3\n" +
+            "    at bar (http://host/app.js:99999999999:1)";
+        assertThat(symbolicator.symbolicate(stackTrace).getStackTrace(), equalTo(
+            "    at async /src/a.js:10:1\n" +
+            "    at async foo (/src/a.js:10:1)\n" +
+            "/src/a.js:10:1\n" +
+            "    at bar (http://host/app.js:99999999999:1)"));
+        assertThat(keys.toString(), equalTo("[http://host/app.js]"));
+    }
+
+    @Test
+    public void shouldSymbolicateFramesInParallel() {
+        final SourceMap map1 = Util.create1to1SourceMap("a\nb\nc", "/a.js");
+        final SourceMap map2 = Util.create1to1SourceMap("a\nb\nc", "/b.js");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Symbolicator symbolicator = new Symbolicator(new Symbolicator.SourceMapProvider() {
+                public SourceMap get(String key) {
+                    return "1".equals(key) ? map1 : map2;
+                }
+            }, executor);
+            List<Symbolicator.Frame> frames = new ArrayList<Symbolicator.Frame>();
+            for (int i = 0; i < 100; i++) frames.add(new Symbolicator.Frame(i % 2 == 0 ? "1" : "2", 2 - i % 3, i));
+
+            Symbolicator.Result result = symbolicator.symbolicate(frames);
+            for (int i = 0; i < 100; i++) {
+                Mapping mapping = result.getFrames().get(i).getMapping();
+                assertThat(mapping.getSourceFileName(), equalTo(i % 2 == 0 ? "/a.js" : "/b.js"));
+                assertThat(mapping.getSourceLine(), equalTo(2 - i % 3));
+                // The given frames are left as they are.
+                assertThat(result.getFrames().get(i) != frames.get(i), equalTo(true));
+                assertThat(frames.get(i).getMapping(), nullValue());
+            }
+            assertThat(result.getElapsedNanos() > 0, equalTo(true));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldDecodeMappingsInParallel() throws Exception {
+        // Single line bundle with unmapped segments and many lines file, both bigger than a few chunks.
+        MappingTable bundle = new MappingTable();
+        for (int i = 0; i < 100000; i++) {
+            if (i % 7 == 0) bundle.add(new MappingImpl(0, 3 * i, -1, -1, null, null));
+            else bundle.addMapping(0, 3 * i, (i * 31) % 1000, (i * 17) % 80, "/" + (i % 13) + ".js",
+                i % 3 == 0 ? "n" + (i % 101) : null);
+        }
+        SourceMap file = new SourceMapImpl();
+        for (int line = 0; line < 50000; line += 1 + line % 3) {
+            for (int column = 0; column < 20; column += 1 + line % 5) file.addMapping(line, column,
+                (line * 7) % 5000, column, "/a.coffee", column % 4 == 0 ? "n" + (line % 50) : null);
+        }
+        // Pairs of segments out of column order, they are sorted by both decodings.
+        MappingTable unsorted = new MappingTable();
+        int sourceFileNameIndex = unsorted.addSourceFileName("/b.js");
+        for (int i = 0; i < 100000; i++) unsorted.addDecoded(i / 1000, 2 * (i % 1000) + (i % 2 == 0 ? 1 : -2),
+            sourceFileNameIndex, i, 0, MappingTable.UNMAPPED);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            String[] contents = {new Generator(bundle).generate(), file.generate(), new Generator(unsorted).generate()};
+            for (String content : contents) {
+                SourceMapImpl sequential = new SourceMapImpl(content);
+                SourceMapImpl parallel = new SourceMapImpl(content, executor);
+                assertThat(mappingsToString(parallel), equalTo(mappingsToString(sequential)));
+                assertThat(parallel.getMappingTable().getLineCount(),
+                    equalTo(sequential.getMappingTable().getLineCount()));
+                assertThat(Util.offset(parallel, 1).generate(), equalTo(Util.offset(sequential, 1).generate()));
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // Decoding in the only thread of the executor it uses.
+        final ExecutorService single = Executors.newSingleThreadExecutor();
+        try {
+            final String content = file.generate();
+            SourceMapImpl parallel = single.submit(new Callable<SourceMapImpl>() {
+                public SourceMapImpl call() {
+                    return new SourceMapImpl(content, single);
+                }
+            }).get(30, TimeUnit.SECONDS);
+            assertThat(mappingsToString(parallel), equalTo(mappingsToString(new SourceMapImpl(content))));
+        } finally {
+            single.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldEncodeMappingsInParallel() throws Exception {
+        // Chunks starting in the middle of line, at the line start and after empty lines, with symbol names far
+        // before the chunk start.
+        SourceMapImpl bundle = new SourceMapImpl();
+        for (int i = 0; i < 100000; i++) bundle.addMapping(0, 2 * i, i % 700, i % 90, "/" + (i % 11) + ".js",
+            i == 5 || i > 80000 && i % 5 == 0 ? "n" + (i % 37) : null);
+        SourceMapImpl file = new SourceMapImpl();
+        for (int line = 0; line < 40000; line += 1 + line % 4) {
+            for (int column = 0; column < 10; column += 1 + line % 3) file.addMapping(line, column, line / 2,
+                column, "/a.ts", column == 0 && line % 7 == 0 ? "n" + (line % 19) : null);
+        }
+        file.addMapping(40005, 0, 0, 0, "/b.ts");
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (SourceMapImpl map : new SourceMapImpl[]{bundle, file, new SourceMapImpl()})
+                assertThat(map.generate(executor), equalTo(map.generate()));
+
+            // Unmapped segments.
+            MappingTable table = new MappingTable();
+            for (int i = 0; i < 50000; i++) {
+                if (i % 3 == 0) table.add(new MappingImpl(i / 4, i % 4, -1, -1, null, null));
+                else table.addMapping(i / 4, i % 4, i, 0, "/a.js", i % 4 == 1 ? "n" : null);
+            }
+            Generator generator = new Generator(table);
+            generator.setExecutor(executor);
+            assertThat(generator.generate(), equalTo(new Generator(table).generate()));
+        } finally {
+            executor.shutdown();
+        }
+
+        // Encoding in the only thread of the executor it uses.
+        final ExecutorService single = Executors.newSingleThreadExecutor();
+        try {
+            final SourceMapImpl map = bundle;
+            String generated = single.submit(new Callable<String>() {
+                public String call() {
+                    return map.generate(single);
+                }
+            }).get(30, TimeUnit.SECONDS);
+            assertThat(generated, equalTo(bundle.generate()));
+        } finally {
+            single.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldWriteAndOpenBinarySourceMap() throws Exception {
+        SourceMap map = new SourceMapImpl();
+        map.addMapping(0, 0, 0, 0, "/a.js");
+        map.addMapping(0, 5, 3, 2, "/\u00e9t\u00e9.js", "f");
+        map.addMapping(3, 2, 1, 0, "/a.js", "g");
+        map.addMapping(3, 4, 1, 1, "/a.js");
+        map.addMapping(4, 7, 9, 9, "/a.js", "f");
+        map = new SourceMapImpl(map.generate());
+
+        File file = File.createTempFile("sourcemap", ".bin");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                BinarySourceMap.write(map, out);
+            } finally {
+                out.close();
+            }
+            BinarySourceMap binary = BinarySourceMap.open(file);
+            assertThat(binary.generate(), equalTo(map.generate()));
+            assertThat(mappingsToString(binary), equalTo(mappingsToString(map)));
+            assertThat(binary.getSourceFileNames(), equalTo(map.getSourceFileNames()));
+            for (int line = -1; line < 6; line++) {
+                for (int column = 0; column < 10; column++)
+                    assertThat(String.valueOf(binary.getMapping(line, column)),
+                        equalTo(String.valueOf(map.getMapping(line, column))));
+            }
+            assertThat(binary.getGeneratedPositions("/a.js", 1).size(), equalTo(2));
+        } finally {
+            file.delete();
+        }
+
+        try {
+            new BinarySourceMap(ByteBuffer.wrap("{\"version\":3}".getBytes("UTF-8")));
+            fail();
+        } catch (RuntimeException e) {
+            assertThat(e.getMessage(), equalTo("invalid binary source map!"));
+        }
+    }
+
+    @Test
+    public void shouldParseSourceMapFile() throws Exception {
+        SourceMap map = new SourceMapImpl();
+        map.addMapping(0, 0, 0, 0, "/a.js");
+        map.addMapping(0, 5, 3, 2, "/\u00e9t\u00e9.js", "\ud83d\ude00");
+        map.addMapping(3, 2, 1, 0, "/a.js", "g");
+        String content = map.generate();
+        byte[] bytes = content.getBytes("UTF-8");
+
+        File file = File.createTempFile("sourcemap", ".map");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(bytes);
+            } finally {
+                out.close();
+            }
+            SourceMap parsed = new SourceMapImpl(file);
+            assertThat(parsed.generate(), equalTo(content));
+            assertThat(mappingsToString(parsed), equalTo(mappingsToString(new SourceMapImpl(content))));
+            assertThat(parsed.getSourceFileNames(), equalTo(map.getSourceFileNames()));
+        } finally {
+            file.delete();
+        }
+
+        // Mappings are copied as bytes, but the other strings are still decoded.
+        assertThat(new SourceMapImpl(bytes).generate(), equalTo(content));
+        String escaped = "{\"version\":3,\"sources\":[\"/a.js\"],\"names\":[],\"mappings\":\"A\\u0041AA;\"}";
+        assertThat(mappingsToString(new SourceMapImpl(escaped.getBytes("UTF-8"))),
+            equalTo(mappingsToString(new SourceMapImpl(escaped))));
+    }
+
+    @Test
+    public void shouldShareNamesInPool() {
+        NamePool pool = new NamePool();
+        SourceMap a = new SourceMapImpl();
+        a.addMapping(0, 0, 0, 0, "/a.js", "f");
+        a.addMapping(1, 2, 1, 0, "/\u00e9t\u00e9.js", "g");
+        SourceMap b = new SourceMapImpl();
+        b.addMapping(0, 0, 4, 0, "/\u00e9t\u00e9.js", "g");
+        b.addMapping(0, 3, 5, 1, "/b.js");
+
+        SourceMap pooledA = new SourceMapImpl(a.generate(), pool);
+        SourceMap pooledB = new SourceMapImpl(b.generate(), pool);
+        assertThat(pooledA.generate(), equalTo(a.generate()));
+        assertThat(pool.size(), equalTo(5));
+        assertThat(pooledB.getSourceFileNames().get(0) == pooledA.getSourceFileNames().get(1), equalTo(true));
+
+        pooledA.addMapping(3, 0, 0, 0, "/c.js", "f");
+        a.addMapping(3, 0, 0, 0, "/c.js", "f");
+        assertThat(pooledA.generate(), equalTo(a.generate()));
+        assertThat(pool.getName(pool.intern("/c.js")), equalTo("/c.js"));
+
+        // The pooled names are written as the pool escapes them, not as they are in the parsed map.
+        String content = "{\"version\":3,\"sources\":[\"\\/c.js\"],\"names\":[],\"mappings\":\"AAAA\"}";
+        SourceMap pooledC = new SourceMapImpl(content, pool);
+        assertThat(pooledC.generate(), containsString("\"sources\":[\"/c.js\"]"));
+        assertThat(Util.offset(pooledC, 1).generate(), containsString("\"sources\":[\"/c.js\"]"));
+
+        SourceMapJoiner joiner = Util.joiner();
+        joiner.addSourceMap(a, 4, 0);
+        joiner.addSourceMap(b, 1, 0);
+        SourceMapJoiner pooledJoiner = Util.joiner(pool);
+        pooledJoiner.addSourceMap(pooledA, 4, 0);
+        pooledJoiner.addSourceMap(pooledB, 1, 0);
+        // The unmodified parsed map is spliced, so its sources are listed again after the joined ones.
+        SourceMap pooledJoined = pooledJoiner.join();
+        assertThat(mappingsToString(pooledJoined), equalTo(mappingsToString(joiner.join())));
+        assertThat(pooledJoined.generate(), containsString(
+            "\"sources\":[\"/a.js\",\"/\\u00e9t\\u00e9.js\",\"/c.js\",\"/\\u00e9t\\u00e9.js\",\"/b.js\"]"));
+
+        SourceMap map = new SourceMapImpl(pool);
+        map.addMapping(0, 0, 0, 0, "/a.js");
+        map.addMapping(0, 4, 1, 2, "/b.js", "h");
+        SourceMap expected = new SourceMapImpl();
+        expected.addMapping(0, 0, 0, 0, "/a.js");
+        expected.addMapping(0, 4, 1, 2, "/b.js", "h");
+        assertThat(Util.rebase(map, pooledA).generate(), equalTo(Util.rebase(expected, a).generate()));
+    }
+
+    @Test
+    public void shouldAddMappingsThroughSink() {
+        SourceMapImpl map = new SourceMapImpl();
+        int a = map.addSourceFileName("/a.js");
+        int b = map.addSourceFileName("/b.js");
+        int f = map.addSourceSymbolName("f");
+        assertThat(map.addSourceFileName("/a.js"), equalTo(a));
+        map.addSegment(0, 0, a, 0, 0, MappingSink.NO_NAME);
+        map.addSegment(0, 4, b, 2, 1, f);
+        map.addUnmappedSegment(1, 3);
+        map.addSegment(2, 1, a, 3, 0, f);
+        String expected = "0:0 /a.js:0:0 null\n0:4 /b.js:2:1 f\n1:3 null:-1:-1 null\n2:1 /a.js:3:0 f\n";
+        assertThat(mappingsToString(map), equalTo(expected));
+        assertThat(mappingsToString(new SourceMapImpl(map.generate())), equalTo(expected));
+
+        try {
+            map.addSegment(3, 0, 2, 0, 0, MappingSink.NO_NAME);
+            fail();
+        } catch (RuntimeException e) {
+            assertThat(e.getMessage(), equalTo("invalid name index 2!"));
+        }
+    }
+
+    @Test
+    public void shouldCreate1to1SourceMapWithoutMappings() throws Exception {
+        String source = "var a = 1;\n\nvar b = 2;\n";
+        SourceMap expected = new SourceMapImpl();
+        for (int line = 0; line < 4; line++) expected.addMapping(line, 0, line, 0, "/a.js");
+
+        SourceMap map = Util.create1to1SourceMap(source, "/a.js");
+        assertThat(map.generate(), equalTo(expected.generate()));
+        assertThat(mappingsToString(map), equalTo(mappingsToString(expected)));
+        for (int line = -1; line < 6; line++)
+            assertThat(String.valueOf(map.getMapping(line, 3)), equalTo(String.valueOf(expected.getMapping(line, 3))));
+        assertThat(Util.countLines(new ByteArrayInputStream(source.getBytes("UTF-8"))), equalTo(4));
+
+        SourceMap other = new SourceMapImpl();
+        other.addMapping(0, 2, 1, 1, "/b.js", "f");
+        SourceMapJoiner joiner = Util.joiner();
+        joiner.addSourceMap(other, 2, 0);
+        joiner.addSourceMap(map, 4, 1);
+        joiner.addSourceMap(other, 1, 0);
+        SourceMapJoiner expectedJoiner = Util.joiner();
+        expectedJoiner.addSourceMap(other, 2, 0);
+        expectedJoiner.addSourceMap(expected, 4, 1);
+        expectedJoiner.addSourceMap(other, 1, 0);
+        assertThat(joiner.join().generate(), equalTo(expectedJoiner.join().generate()));
+
+        SourceMap minified = new SourceMapImpl();
+        minified.addMapping(0, 0, 0, 4, "/a.js", "a");
+        minified.addMapping(0, 6, 2, 0, "/a.js");
+        minified.addMapping(0, 9, 7, 0, "/a.js");
+        assertThat(Util.rebase(minified, map).generate(), equalTo(Util.rebase(minified, expected).generate()));
+        assertThat(Util.rebase(map, minified).generate(), equalTo(Util.rebase(expected, minified).generate()));
+        assertThat(Util.offset(map, 2).generate(), equalTo(Util.offset(expected, 2).generate()));
+
+        map.addMapping(4, 0, 9, 0, "/a.js");
+        expected.addMapping(4, 0, 9, 0, "/a.js");
+        assertThat(map.generate(), equalTo(expected.generate()));
+    }
+
+    @Test
+    public void shouldWriteBatchAndItsSourceMapInOnePass() throws Exception {
+        String a = "var a = 1;\nvar b = 2;";
+        SourceMap mapA = new SourceMapImpl();
+        mapA.addMapping(0, 0, 0, 0, "/a.coffee", "a");
+        mapA.addMapping(1, 4, 2, 1, "/a.coffee", "b");
+        String b = "\n// \u00e9t\u00e9\n";
+        String c = "(function(){\nvar c = 3;\n})();";
+        SourceMap mapC = new SourceMapImpl();
+        mapC.addMapping(1, 0, 0, 0, "/c.ts");
+        mapC = new SourceMapImpl(mapC.generate());
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        ByteArrayOutputStream sourceMap = new ByteArrayOutputStream();
+        BatchWriter writer = new BatchWriter(content, sourceMap);
+        assertThat(writer.add(new ByteArrayInputStream(a.getBytes("UTF-8")), mapA), equalTo(2));
+        assertThat(writer.add(new ByteArrayInputStream(b.getBytes("UTF-8")), "/b.js"), equalTo(3));
+        assertThat(writer.add(new ByteArrayInputStream(c.getBytes("UTF-8")), mapC, 1), equalTo(3));
+        writer.finish();
+
+        SourceMapJoiner joiner = Util.joiner();
+        joiner.addSourceMap(mapA, Util.countLines(a), 0);
+        joiner.addSourceMap(Util.create1to1SourceMap(b, "/b.js"), Util.countLines(b), 0);
+        joiner.addSourceMap(mapC, Util.countLines(c), 1);
+        assertThat(new String(content.toByteArray(), "UTF-8"), equalTo(a + "\n" + b + "\n" + c));
+        SourceMap written = new SourceMapImpl(sourceMap.toByteArray());
+        assertThat(written.generate(), equalTo(joiner.join().generate()));
+    }
+
     @Test
     public void shouldGenerateEmptyMap() {
         assertThat((new SourceMapImpl()).generate(), equalTo(